@@ -10,6 +10,10 @@ import com.google.cloud.bigtable.data.v2.BigtableDataSettings;
 import com.google.cloud.bigtable.data.v2.models.*;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.protobuf.ByteString;
+import com.manju.gcp.metrics.Counter;
+import com.manju.gcp.metrics.LatencyHistogram;
+import com.manju.gcp.metrics.MetricsRegistry;
+import com.manju.gcp.metrics.SampledLogger;
 import java.util.List;
 import java.util.Optional;
 import org.apache.commons.lang3.StringUtils;
@@ -19,6 +23,15 @@ import static com.google.cloud.bigtable.data.v2.models.Filters.FILTERS;
 
 public class BigTableService {
 
+  private static final SampledLogger LOG = new SampledLogger(BigTableService.class);
+  private static final LatencyHistogram MUTATE_LATENCY = MetricsRegistry.getDefault().histogram("bigtable.mutate.latency");
+  private static final LatencyHistogram BULK_MUTATE_LATENCY = MetricsRegistry.getDefault().histogram("bigtable.bulk.mutate.latency");
+  private static final LatencyHistogram BULK_MUTATE_BATCH_SIZE = MetricsRegistry.getDefault().histogram("bigtable.bulk.mutate.batch.size");
+  private static final LatencyHistogram MUTATION_CELLS = MetricsRegistry.getDefault().histogram("bigtable.mutation.cells");
+  private static final LatencyHistogram READ_ROW_LATENCY = MetricsRegistry.getDefault().histogram("bigtable.read.row.latency");
+  private static final LatencyHistogram READ_MODIFY_WRITE_LATENCY = MetricsRegistry.getDefault().histogram("bigtable.read.modify.write.latency");
+  private static final Counter RPC_FAILURE = MetricsRegistry.getDefault().counter("bigtable.rpc.failure");
+
   private BigtableDataClient bigtableDataClient;
 
   public BigTableService(String projectId, String instanceId) {
@@ -38,7 +51,7 @@ public class BigTableService {
           bigtableDataClient = BigtableDataClient.create(settings);
 
       } catch (Exception ex) {
-          ex.printStackTrace();
+          LOG.error("client_create_failed", "projectId=" + projectId + " instanceId=" + instanceId, ex);
           throw new RuntimeException(ex);
       }
   }
@@ -56,9 +69,12 @@ public class BigTableService {
           } else {
               RowMutation.create(tableName, rowKey).setCell(columnFamily, qualifier, value);
           }
+          long startNanos = System.nanoTime();
           bigtableDataClient.mutateRow(rowMutation);
+          MUTATE_LATENCY.recordSince(startNanos);
       } catch(Exception ex) {
-          ex.printStackTrace();
+          RPC_FAILURE.increment();
+          LOG.error("mutate_row_failed", "table=" + tableName, ex);
       }
   }
 
@@ -66,9 +82,12 @@ public class BigTableService {
       validateIsEmtpy(columnFamily, "Column Family");
       validateQualifiersAndValues(qualifiers, values);
       if(qualifiers.length == 0 && values.length == 0) {
-          System.out.println("Blank qualifiers and values, hence skipping it.");
+          if(LOG.isSampled()) {
+              LOG.info("add_cell_skipped", "reason=blank_qualifiers_and_values");
+          }
           return;
       }
+      MUTATION_CELLS.record(qualifiers.length);
       for(int i=0; i < qualifiers.length; i++) {
           mutation.setCell(columnFamily, qualifiers[i], values[i]);
       }
@@ -77,21 +96,34 @@ public class BigTableService {
   public void saveMutationSync(String tableName, String rowKey, Mutation mutation) {
       BulkMutation bulkMutation = BulkMutation.create(tableName);
       bulkMutation.add(rowKey, mutation);
-      bigtableDataClient.bulkMutateRows(bulkMutation);
+      BULK_MUTATE_BATCH_SIZE.record(bulkMutation.getEntryCount());
+      long startNanos = System.nanoTime();
+      try {
+          bigtableDataClient.bulkMutateRows(bulkMutation);
+      } catch(RuntimeException ex) {
+          RPC_FAILURE.increment();
+          throw ex;
+      } finally {
+          BULK_MUTATE_LATENCY.recordSince(startNanos);
+      }
   }
 
   public void saveMutationAsync(String rowKey, Mutation mutation, String tableName) {
       BulkMutation bulkMutation = BulkMutation.create(tableName);
       bulkMutation.add(rowKey, mutation);
+      BULK_MUTATE_BATCH_SIZE.record(bulkMutation.getEntryCount());
+      long startNanos = System.nanoTime();
       ApiFuture<Void> apiFuture = bigtableDataClient.bulkMutateRowsAsync(bulkMutation);
       ApiFutures.addCallback(
               apiFuture,
               new ApiFutureCallback<Void>() {
                   public void onSuccess(Void noMessage) {
-                      System.out.println("Saved record into Bigtable");
+                      BULK_MUTATE_LATENCY.recordSince(startNanos);
                   }
                   public void onFailure(Throwable t) {
-                      System.out.println("Error while saving record to bigtable asynchronous" + mutation.toString());
+                      BULK_MUTATE_LATENCY.recordSince(startNanos);
+                      RPC_FAILURE.increment();
+                      LOG.error("bulk_mutate_async_failed", "table=" + tableName + " rowKey=" + rowKey, t);
                   }
               }, MoreExecutors.directExecutor()
       );
@@ -113,9 +145,13 @@ public class BigTableService {
       try {
           validateIsEmtpy(tableName, "Table");
           validateIsEmtpy(rowKey, "Row Key");
-          return bigtableDataClient.readRow(tableName, rowKey);
+          long startNanos = System.nanoTime();
+          Row row = bigtableDataClient.readRow(tableName, rowKey);
+          READ_ROW_LATENCY.recordSince(startNanos);
+          return row;
       } catch (Exception ex) {
-          ex.printStackTrace();
+          RPC_FAILURE.increment();
+          LOG.error("read_row_failed", "table=" + tableName, ex);
       }
       return null;
   }
@@ -128,7 +164,8 @@ public class BigTableService {
           rowKeys.forEach(query::rowKey);
           return bigtableDataClient.readRows(query);
       } catch (Exception ex) {
-          ex.printStackTrace();
+          RPC_FAILURE.increment();
+          LOG.error("read_rows_failed", "table=" + tableName, ex);
       }
       return null;
   }
@@ -140,7 +177,8 @@ public class BigTableService {
           Query query = Query.create(tableName).prefix(prefixRowKey).filter(FILTERS.limit().cellsPerColumn(1));
           return bigtableDataClient.readRows(query);
       } catch (Exception ex) {
-          ex.printStackTrace();
+          RPC_FAILURE.increment();
+          LOG.error("read_rows_failed", "table=" + tableName, ex);
       }
       return null;
   }
@@ -149,12 +187,15 @@ public class BigTableService {
       try {
           validateIsEmtpy(tableName, "Table");
           validateIsEmtpy(rowKey, "Row Key");
+          long startNanos = System.nanoTime();
           Row row = bigtableDataClient.readRow(tableName, rowKey);
+          READ_ROW_LATENCY.recordSince(startNanos);
           if(row != null) {
               return true;
           }
       } catch (Exception ex) {
-          ex.printStackTrace();
+          RPC_FAILURE.increment();
+          LOG.error("read_row_failed", "table=" + tableName, ex);
       }
       return false;
   }
@@ -171,9 +212,12 @@ public class BigTableService {
           validateIsEmtpy(columnName, "Column Name");
           ReadModifyWriteRow readModifyWriteRow = ReadModifyWriteRow.create(tableName, ByteString.copyFromUtf8(key));
           readModifyWriteRow.increment(columnFamily, columnName, 1);
+          long startNanos = System.nanoTime();
           bigtableDataClient.readModifyWriteRow(readModifyWriteRow);
+          READ_MODIFY_WRITE_LATENCY.recordSince(startNanos);
       } catch (Exception ex) {
-          ex.printStackTrace();
+          RPC_FAILURE.increment();
+          LOG.error("increment_counter_failed", "table=" + tableName, ex);
       }
   }
   
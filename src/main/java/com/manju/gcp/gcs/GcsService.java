@@ -13,9 +13,17 @@ import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 import org.apache.commons.lang3.StringUtils;
+import com.manju.gcp.metrics.Counter;
+import com.manju.gcp.metrics.LatencyHistogram;
+import com.manju.gcp.metrics.MetricsRegistry;
 
 public class GcsService {
   
+  private static final LatencyHistogram DOWNLOAD_LATENCY = MetricsRegistry.getDefault().histogram("gcs.download.latency");
+  private static final LatencyHistogram UPLOAD_LATENCY = MetricsRegistry.getDefault().histogram("gcs.upload.latency");
+  private static final Counter DOWNLOAD_BYTES = MetricsRegistry.getDefault().counter("gcs.download.bytes");
+  private static final Counter UPLOAD_BYTES = MetricsRegistry.getDefault().counter("gcs.upload.bytes");
+  
   private Storage storage;
 
   public GcsService() {
@@ -35,7 +43,10 @@ public class GcsService {
                   Path parent = localPath.getParent();
                   if (!Files.exists(parent))
                       Files.createDirectories(parent);
+                  long startNanos = System.nanoTime();
                   blob.downloadTo(localPath);
+                  DOWNLOAD_LATENCY.recordSince(startNanos);
+                  DOWNLOAD_BYTES.add(Files.size(localPath));
               }
           }
       } catch (Exception io) {
@@ -51,7 +62,7 @@ public class GcsService {
           Page<Blob> blobs = storage.list(bucketName, Storage.BlobListOption.prefix(keyDirPrefix));
           for (Blob blob : blobs.iterateAll()) {
               if (blob != null) {
-                  filesData.add(new String(blob.getContent()));
+                  filesData.add(new String(readContent(blob)));
               }
           }
           return filesData;
@@ -69,7 +80,7 @@ public class GcsService {
           if (blob == null) {
               return null;
           }
-          return blob.getContent();
+          return readContent(blob);
       } catch (Exception io) {
           System.err.println("Error occurred while downloading the directory files into local");
           throw new RuntimeException(io);
@@ -103,7 +114,7 @@ public class GcsService {
           if (blob == null) {
               return "";
           }
-          return new String(blob.getContent());
+          return new String(readContent(blob));
       } catch (Exception ex) {
           System.err.println("Error in reading the file from GCS, bucket-" + strBucket + "and key prefix-" + strKey);
           throw new RuntimeException(ex);
@@ -122,7 +133,10 @@ public class GcsService {
           Path parent = localPath.getParent();
           if (!Files.exists(parent))
               Files.createDirectories(parent);
+          long startNanos = System.nanoTime();
           blob.downloadTo(localPath);
+          DOWNLOAD_LATENCY.recordSince(startNanos);
+          DOWNLOAD_BYTES.add(Files.size(localPath));
       } catch (Exception io) {
           System.err.println("Error in downloading file to local path-" + localDirPath);
           throw new RuntimeException(io);
@@ -132,14 +146,14 @@ public class GcsService {
   public Blob uploadObject(String bucketName, String keyPrefix, String content) {
       BlobId blobId = BlobId.of(bucketName, keyPrefix);
       BlobInfo blobInfo = BlobInfo.newBuilder(blobId).build();
-      return storage.create(blobInfo, content.getBytes(StandardCharsets.UTF_8));
+      return upload(blobInfo, content.getBytes(StandardCharsets.UTF_8));
   }
 
   public void uploadToGCP(String bucket, String key, File directory) {
       try {
           BlobId blobId = BlobId.of(bucket, key);
           BlobInfo blobInfo = BlobInfo.newBuilder(blobId).build();
-          storage.create(blobInfo, Files.readAllBytes(directory.toPath()));
+          upload(blobInfo, Files.readAllBytes(directory.toPath()));
       } catch (Exception e) {
           System.err.println("Error while uploading file");
           throw new RuntimeException(e);
@@ -158,6 +172,22 @@ public class GcsService {
     storage = StorageOptions.newBuilder().setCredentials(credentials).build().getService();
   }
   
+  private byte[] readContent(Blob blob) {
+      long startNanos = System.nanoTime();
+      byte[] content = blob.getContent();
+      DOWNLOAD_LATENCY.recordSince(startNanos);
+      DOWNLOAD_BYTES.add(content.length);
+      return content;
+  }
+
+  private Blob upload(BlobInfo blobInfo, byte[] content) {
+      long startNanos = System.nanoTime();
+      Blob blob = storage.create(blobInfo, content);
+      UPLOAD_LATENCY.recordSince(startNanos);
+      UPLOAD_BYTES.add(content.length);
+      return blob;
+  }
+  
   private void validateBucketAndKeyPrefix(String bucketName, String keyPrefix) {
     if (StringUtils.isEmpty(bucketName))
         throw new IllegalArgumentException("Bucket Name cannot be empty or null.");
@@ -0,0 +1,177 @@
+package com.manju.gcp.mail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Memory bounded cache of base64 encoded file contents used for mail attachments.
+ * Entries are keyed by path and are valid only as long as the file size and last modified time are unchanged,
+ * least recently used entries are evicted once the memory held by the cached contents crosses the max bytes.
+ * Sizes are counted in bytes of the string contents, a string holds a char array on Java 8 so each encoded character takes two bytes.
+ * Encoding a file needs about three times its encoded length at peak, the encoded bytes and the string copied from them
+ * are both live until the string is built, so the max bytes bound only what stays cached.
+ */
+public class AttachmentCache {
+
+    //Multiple of 3 so every chunk is encoded without base64 padding.
+    private static final int READ_BUFFER_SIZE = 48 * 1024;
+    private static final int BYTES_PER_CHAR = 2;
+
+    private static class Entry {
+
+        private final long size;
+        private final long lastModifiedMillis;
+        private final String encodedContent;
+
+        Entry(long size, long lastModifiedMillis, String encodedContent) {
+            this.size = size;
+            this.lastModifiedMillis = lastModifiedMillis;
+            this.encodedContent = encodedContent;
+        }
+    }
+
+    /**
+     * Output stream which writes into a byte array sized up front, so the encoded content is not copied on growth.
+     */
+    private static class FixedByteArrayOutputStream extends OutputStream {
+
+        private final byte[] bytes;
+        private int count;
+
+        FixedByteArrayOutputStream(int size) {
+            bytes = new byte[size];
+        }
+
+        @Override
+        public void write(int b) {
+            bytes[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            System.arraycopy(b, off, bytes, count, len);
+            count += len;
+        }
+    }
+
+    private final long maxBytes;
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long cachedBytes;
+    private long hitCount;
+    private long missCount;
+
+    /**
+     * @param maxBytes -- Maximum memory held by the cached encoded contents, larger files are encoded but not cached.
+     */
+    public AttachmentCache(long maxBytes) {
+        if(maxBytes < 0) {
+            throw new IllegalArgumentException("Max bytes cannot be negative.");
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Method to get the base64 encoded content of the file, from the cache if the file is unchanged.
+     */
+    public String getEncodedContent(Path filePath) throws IOException {
+        Path path = filePath.toAbsolutePath().normalize();
+        String key = path.toString();
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        long size = attributes.size();
+        long lastModifiedMillis = attributes.lastModifiedTime().toMillis();
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if(entry != null && entry.size == size && entry.lastModifiedMillis == lastModifiedMillis) {
+                hitCount++;
+                return entry.encodedContent;
+            }
+            missCount++;
+        }
+        String encodedContent = encode(path, size);
+        synchronized (this) {
+            Entry previous = entries.remove(key);
+            if(previous != null) {
+                cachedBytes -= sizeOf(previous.encodedContent);
+            }
+            if(sizeOf(encodedContent) <= maxBytes) {
+                entries.put(key, new Entry(size, lastModifiedMillis, encodedContent));
+                cachedBytes += sizeOf(encodedContent);
+                evict();
+            }
+        }
+        return encodedContent;
+    }
+
+    public synchronized long getCachedBytes() {
+        return cachedBytes;
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        cachedBytes = 0;
+    }
+
+    private void evict() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while(cachedBytes > maxBytes && iterator.hasNext()) {
+            cachedBytes -= sizeOf(iterator.next().encodedContent);
+            iterator.remove();
+        }
+    }
+
+    private static long sizeOf(String encodedContent) {
+        return (long) encodedContent.length() * BYTES_PER_CHAR;
+    }
+
+    /**
+     * Method to stream the file through a wrapping base64 encoder straight into an output array of the exact encoded size,
+     * the string built from the array is a second copy as the string constructor always copies.
+     */
+    private static String encode(Path path, long size) throws IOException {
+        long encodedLength = 4 * ((size + 2) / 3);
+        if(encodedLength > Integer.MAX_VALUE) {
+            throw new IOException("File is too large to be attached->" + path);
+        }
+        FixedByteArrayOutputStream encoded = new FixedByteArrayOutputStream((int) encodedLength);
+        ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+             OutputStream encoder = Base64.getEncoder().wrap(encoded)) {
+            long remaining = size;
+            while(remaining > 0) {
+                int read = channel.read(buffer);
+                if(read < 0) {
+                    break;
+                }
+                if(!buffer.hasRemaining() || buffer.position() >= remaining) {
+                    int length = (int) Math.min(buffer.position(), remaining);
+                    encoder.write(buffer.array(), 0, length);
+                    remaining -= length;
+                    buffer.clear();
+                }
+            }
+            if(remaining > 0) {
+                throw new IOException("File changed while encoding the attachment->" + path);
+            }
+        }
+        return new String(encoded.bytes, 0, encoded.count, StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,48 @@
+package com.manju.gcp.mail;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Holds the to, cc and bcc email addresses of one recipient group, sent as one personalization of the mail.
+ */
+public class MailRecipients {
+
+    private final List<String> toEmailsList;
+    private final List<String> ccEmailsList;
+    private final List<String> bccEmailsList;
+
+    public MailRecipients(List<String> toEmailsList) {
+        this(toEmailsList, null, null);
+    }
+
+    public MailRecipients(List<String> toEmailsList, List<String> ccEmailsList, List<String> bccEmailsList) {
+        this.toEmailsList = toEmailsList == null ? Collections.emptyList() : toEmailsList;
+        this.ccEmailsList = ccEmailsList == null ? Collections.emptyList() : ccEmailsList;
+        this.bccEmailsList = bccEmailsList == null ? Collections.emptyList() : bccEmailsList;
+    }
+
+    public List<String> getToEmailsList() {
+        return toEmailsList;
+    }
+
+    public List<String> getCcEmailsList() {
+        return ccEmailsList;
+    }
+
+    public List<String> getBccEmailsList() {
+        return bccEmailsList;
+    }
+
+    /**
+     * Method to get the total number of to, cc and bcc email addresses.
+     */
+    public int getRecipientsCount() {
+        return toEmailsList.size() + ccEmailsList.size() + bccEmailsList.size();
+    }
+
+    @Override
+    public String toString() {
+        return "to=" + toEmailsList + ", cc=" + ccEmailsList + ", bcc=" + bccEmailsList;
+    }
+}
@@ -0,0 +1,48 @@
+package com.manju.gcp.mail;
+
+/**
+ * Status of sending a mail to one recipient group, all groups packed into the same send grid request share the status.
+ */
+public class MailSendStatus {
+
+    private final MailRecipients recipients;
+    private final int statusCode;
+    private final String errorMessage;
+    private final int attempts;
+
+    public MailSendStatus(MailRecipients recipients, int statusCode, String errorMessage, int attempts) {
+        this.recipients = recipients;
+        this.statusCode = statusCode;
+        this.errorMessage = errorMessage;
+        this.attempts = attempts;
+    }
+
+    public MailRecipients getRecipients() {
+        return recipients;
+    }
+
+    /**
+     * Method to get the http status code of the send grid response, 0 if no response was received.
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public boolean isSuccess() {
+        return statusCode >= 200 && statusCode < 300;
+    }
+
+    @Override
+    public String toString() {
+        return "statusCode=" + statusCode + ", attempts=" + attempts + (errorMessage == null ? "" : ", error=" + errorMessage)
+                + ", recipients=[" + recipients + "]";
+    }
+}
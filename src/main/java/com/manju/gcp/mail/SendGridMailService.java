@@ -1,5 +1,6 @@
 package com.manju.gcp.mail;
 
+import com.sendgrid.Client;
 import com.sendgrid.Method;
 import com.sendgrid.Request;
 import com.sendgrid.Response;
@@ -9,26 +10,77 @@ import com.sendgrid.helpers.mail.objects.Attachments;
 import com.sendgrid.helpers.mail.objects.Content;
 import com.sendgrid.helpers.mail.objects.Email;
 import com.sendgrid.helpers.mail.objects.Personalization;
+import com.manju.gcp.metrics.Counter;
+import com.manju.gcp.metrics.LatencyHistogram;
+import com.manju.gcp.metrics.MetricsRegistry;
+import com.manju.gcp.metrics.SampledLogger;
 
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.apache.http.impl.client.HttpClientBuilder;
 
 public class SendGridMailService {
 
+    private static final SampledLogger LOG = new SampledLogger(SendGridMailService.class);
+    private static final LatencyHistogram SEND_LATENCY = MetricsRegistry.getDefault().histogram("sendgrid.send.latency");
+    private static final Counter SEND_SUCCESS = MetricsRegistry.getDefault().counter("sendgrid.send.success");
+    private static final Counter SEND_FAILURE = MetricsRegistry.getDefault().counter("sendgrid.send.failure");
+
     private final String SENDGRID_ENDPOINT = "mail/send";
     private final String HTML_TYPE = "text/html";
     
+    //Send grid accepts at most 1000 personalizations and 1000 recipients in total per request.
+    private static final int MAX_PERSONALIZATIONS = 1000;
+    private static final int MAX_RECIPIENTS = 1000;
+    private static final int MAX_ATTEMPTS = 5;
+    private static final long INITIAL_BACKOFF_MILLIS = 500L;
+    private static final long MAX_BACKOFF_MILLIS = 30_000L;
+    private static final int BULK_QUEUE_SIZE = 1000;
+    private static final int CONCURRENCY_DEFAULT = 4;
+    private static final double REQUESTS_PER_SECOND_DEFAULT = 10.0;
+    private static final long ATTACHMENT_CACHE_SIZE_DEFAULT = 64L * 1024 * 1024;
+    private static final Pattern STATUS_CODE_PATTERN = Pattern.compile("status Code (\\d{3})");
+    
     private String fromEmailAddress;
     private String fromName;
     private SendGrid sendGrid;
+    private ThreadPoolExecutor bulkExecutor;
+    private TokenBucketRateLimiter rateLimiter;
+    private AttachmentCache attachmentCache = new AttachmentCache(ATTACHMENT_CACHE_SIZE_DEFAULT);
 
 
     public SendGridMailService(String sendGridAPIKey, String fromEmailAddress, String fromName) {
-        sendGrid = new SendGrid(sendGridAPIKey);
+        this(sendGridAPIKey, fromEmailAddress, fromName, CONCURRENCY_DEFAULT, REQUESTS_PER_SECOND_DEFAULT);
+    }
+
+    /**
+     * Constructor with the limits of the bulk mail sender.
+     *
+     * @param concurrency -- Maximum number of send grid requests in flight for bulk mails.
+     * @param requestsPerSecond -- Maximum rate of send grid requests for bulk mails.
+     */
+    public SendGridMailService(String sendGridAPIKey, String fromEmailAddress, String fromName, int concurrency, double requestsPerSecond) {
+        if(concurrency < 1) {
+            throw new IllegalArgumentException("Concurrency should be at least 1.");
+        }
+        //Default http client allows only 2 connections per route, size the pool to the bulk concurrency.
+        Client client = new Client(HttpClientBuilder.create().setMaxConnPerRoute(concurrency + 1).setMaxConnTotal(concurrency + 1).build());
+        sendGrid = new SendGrid(sendGridAPIKey, client);
         this.fromEmailAddress = fromEmailAddress;
         this.fromName = fromName;
+        this.rateLimiter = new TokenBucketRateLimiter(requestsPerSecond, concurrency);
+        //Threads are created on the first bulk send and time out when idle, requests are rejected once the queue is full.
+        this.bulkExecutor = new ThreadPoolExecutor(concurrency, concurrency, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(BULK_QUEUE_SIZE), runnable -> {
+                    Thread thread = new Thread(runnable, "sendgrid-bulk-thread");
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+        this.bulkExecutor.allowCoreThreadTimeOut(true);
     }
 
     /**
@@ -76,52 +128,226 @@ public class SendGridMailService {
         try {
           if(Objects.isNull(toEmailsList) || toEmailsList.size() == 0)
             return;
-          Email fromEmail = new Email(fromEmailAddress, fromName);
-          Content bodyContent = new Content(contentType, body);
-          Mail mail = new Mail();
-          mail.setFrom(fromEmail);
-          mail.setSubject(subject);
-          mail.addContent(bodyContent);
-          Personalization personalization = new Personalization();
-          //add to email addresses
-          toEmailsList.forEach(toAddress -> {
-              Email toEmail = new Email(toAddress);
-              personalization.addTo(toEmail);
-          });
-          //add cc email addresses
-          if(Objects.nonNull(ccEmailsList) && ccEmailsList.size() > 0){
-              ccEmailsList.forEach(ccAddress -> {
-                  Email ccEmail = new Email(ccAddress);
-                  personalization.addCc(ccEmail);
-              });
+          Mail mail = createMail(contentType, subject, body, attachment);
+          mail.addPersonalization(createPersonalization(toEmailsList, ccEmailsList, bccEmailsList));
+          Response response = callApi(createRequest(mail));
+          if(LOG.isSampled()) {
+            LOG.info("email_sent", "statusCode=" + response.getStatusCode() + " body=\"" + response.getBody() + "\"");
           }
-          //add bcc email addresses
-          if(Objects.nonNull(bccEmailsList) && bccEmailsList.size() > 0){
-              bccEmailsList.forEach(bccAddress -> {
-                  Email bccEmail = new Email(bccAddress);
-                  personalization.addBcc(bccEmail);
-              });
-          }
-          mail.addPersonalization(personalization);
-  
-          //Add an attachment if it is present
-          attachment.ifPresent(mail::addAttachments);
-  
-          Request request = new Request();
-          request.setMethod(Method.POST);
-          request.setEndpoint(SENDGRID_ENDPOINT);
-          request.setBody(mail.build());
-          Response response = sendGrid.api(request);
-          System.out.println("Email Sent: response status code:"  + response.getStatusCode());
-          System.out.println("Email Sent: response status body:" + response.getBody());
         } catch(Exception ex) {
-            System.err.println("Error in sending email->" + ex.getLocalizedMessage());
-            ex.printStackTrace();
+            LOG.error("email_failed", null, ex);
+        }
+    }
+    
+    /**
+     * Method to send the same mail to many recipient groups asynchronously.
+     * Groups are packed as personalizations into as few send grid requests as the send grid limits allow, requests are
+     * sent concurrently on a bounded pool under the token bucket rate limit and retried with backoff on 429 and 5xx responses.
+     * Groups without a to address or with more addresses than send grid allows get an already failed status and are not sent,
+     * so do groups of requests which do not fit into the queue of pending requests, the caller thread never sends itself.
+     *
+     * @param recipientGroups -- Recipient groups, each group gets its own personalization and sees only its own addresses.
+     * @param subject -- Subject of the mail.
+     * @param body -- Content of the body mail.
+     * @param attachment -- Holds the file content to be attached in the mail.
+     * @return -- Returns a future of the send status for each recipient group, in the same order as the groups.
+     */
+    public List<CompletableFuture<MailSendStatus>> sendBulkMail(List<MailRecipients> recipientGroups, String subject, String body,
+                                                                Optional<Attachments> attachment) {
+        if(Objects.isNull(recipientGroups) || recipientGroups.size() == 0)
+            return new ArrayList<>();
+        List<CompletableFuture<MailSendStatus>> statusFutures = new ArrayList<>(Collections.nCopies(recipientGroups.size(), null));
+        List<MailRecipients> batch = new ArrayList<>();
+        List<Integer> batchIndexes = new ArrayList<>();
+        int batchRecipients = 0;
+        for(int i=0; i < recipientGroups.size(); i++) {
+            MailRecipients recipients = recipientGroups.get(i);
+            String invalidReason = validate(recipients);
+            if(invalidReason != null) {
+                //Only the invalid group fails, packing it would make send grid reject the whole request.
+                statusFutures.set(i, CompletableFuture.completedFuture(new MailSendStatus(recipients, 0, invalidReason, 0)));
+                continue;
+            }
+            int count = recipients.getRecipientsCount();
+            if(!batch.isEmpty() && (batch.size() == MAX_PERSONALIZATIONS || batchRecipients + count > MAX_RECIPIENTS)) {
+                setBatchFutures(statusFutures, batchIndexes, submitBatch(batch, subject, body, attachment));
+                batch = new ArrayList<>();
+                batchIndexes = new ArrayList<>();
+                batchRecipients = 0;
+            }
+            batch.add(recipients);
+            batchIndexes.add(i);
+            batchRecipients += count;
+        }
+        if(!batch.isEmpty()) {
+            setBatchFutures(statusFutures, batchIndexes, submitBatch(batch, subject, body, attachment));
+        }
+        return statusFutures;
+    }
+
+    /**
+     * Method to check the recipient group against the send grid limits, returns the reason if it cannot be sent otherwise null.
+     */
+    private static String validate(MailRecipients recipients) {
+        if(Objects.isNull(recipients) || recipients.getToEmailsList().isEmpty()) {
+            return "Recipient group should have at least one to email address";
+        }
+        if(recipients.getRecipientsCount() > MAX_RECIPIENTS) {
+            return "Recipient group has " + recipients.getRecipientsCount() + " email addresses, more than the limit of " + MAX_RECIPIENTS;
+        }
+        return null;
+    }
+
+    private static void setBatchFutures(List<CompletableFuture<MailSendStatus>> statusFutures, List<Integer> batchIndexes,
+                                        List<CompletableFuture<MailSendStatus>> batchFutures) {
+        for(int i=0; i < batchIndexes.size(); i++) {
+            statusFutures.set(batchIndexes.get(i), batchFutures.get(i));
+        }
+    }
+
+    private List<CompletableFuture<MailSendStatus>> submitBatch(List<MailRecipients> batch, String subject, String body,
+                                                                Optional<Attachments> attachment) {
+        CompletableFuture<MailSendStatus> batchFuture = sendAsync(batch, subject, body, attachment);
+        List<CompletableFuture<MailSendStatus>> statusFutures = new ArrayList<>(batch.size());
+        batch.forEach(recipients -> statusFutures.add(batchFuture.thenApply(status ->
+                new MailSendStatus(recipients, status.getStatusCode(), status.getErrorMessage(), status.getAttempts()))));
+        return statusFutures;
+    }
+
+    private CompletableFuture<MailSendStatus> sendAsync(List<MailRecipients> batch, String subject, String body,
+                                                        Optional<Attachments> attachment) {
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    Mail mail = createMail(HTML_TYPE, subject, body, attachment);
+                    batch.forEach(recipients -> mail.addPersonalization(createPersonalization(recipients.getToEmailsList(),
+                            recipients.getCcEmailsList(), recipients.getBccEmailsList())));
+                    return sendWithRetry(createRequest(mail));
+                } catch(IOException io) {
+                    return new MailSendStatus(null, 0, io.getLocalizedMessage(), 0);
+                }
+            }, bulkExecutor);
+        } catch(RejectedExecutionException rejected) {
+            //Queue is full or the sender is shut down, fail the groups instead of blocking the caller.
+            return CompletableFuture.completedFuture(new MailSendStatus(null, 0, "Bulk mail queue is full or shut down, request rejected", 0));
+        }
+    }
+
+    /**
+     * Method to send the request under the rate limit, retries with exponential backoff and jitter on 429, 5xx and io errors.
+     */
+    private MailSendStatus sendWithRetry(Request request) {
+        int attempt = 0;
+        while(true) {
+            attempt++;
+            int statusCode = 0;
+            String errorMessage;
+            try {
+                rateLimiter.acquire();
+                Response response = callApi(request);
+                return new MailSendStatus(null, response.getStatusCode(), null, attempt);
+            } catch(InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                return new MailSendStatus(null, 0, "Interrupted while sending bulk mail", attempt);
+            } catch(IOException io) {
+                //Send grid client reports non 2xx responses as io exception with the status code in its message.
+                errorMessage = io.getLocalizedMessage();
+                Matcher matcher = STATUS_CODE_PATTERN.matcher(String.valueOf(errorMessage));
+                if(matcher.find()) {
+                    statusCode = Integer.parseInt(matcher.group(1));
+                }
+            }
+            boolean retryable = statusCode == 0 || statusCode == 429 || statusCode >= 500;
+            if(!retryable || attempt >= MAX_ATTEMPTS) {
+                LOG.error("bulk_email_failed", "statusCode=" + statusCode + " attempts=" + attempt + " error=\"" + errorMessage + "\"", null);
+                return new MailSendStatus(null, statusCode, errorMessage, attempt);
+            }
+            long backoff = Math.min(MAX_BACKOFF_MILLIS, INITIAL_BACKOFF_MILLIS << (attempt - 1));
+            try {
+                Thread.sleep(backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1));
+            } catch(InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                return new MailSendStatus(null, statusCode, errorMessage, attempt);
+            }
+        }
+    }
+
+    /**
+     * Method to call the send grid api, records the latency and the outcome of the call.
+     */
+    private Response callApi(Request request) throws IOException {
+        long startNanos = System.nanoTime();
+        try {
+            Response response = sendGrid.api(request);
+            SEND_SUCCESS.increment();
+            return response;
+        } catch(IOException io) {
+            SEND_FAILURE.increment();
+            throw io;
+        } finally {
+            SEND_LATENCY.recordSince(startNanos);
+        }
+    }
+
+    private Mail createMail(String contentType, String subject, String body, Optional<Attachments> attachment) {
+        Email fromEmail = new Email(fromEmailAddress, fromName);
+        Content bodyContent = new Content(contentType, body);
+        Mail mail = new Mail();
+        mail.setFrom(fromEmail);
+        mail.setSubject(subject);
+        mail.addContent(bodyContent);
+        //Add an attachment if it is present
+        attachment.ifPresent(mail::addAttachments);
+        return mail;
+    }
+
+    private Personalization createPersonalization(List<String> toEmailsList, List<String> ccEmailsList, List<String> bccEmailsList) {
+        Personalization personalization = new Personalization();
+        //add to email addresses
+        toEmailsList.forEach(toAddress -> {
+            Email toEmail = new Email(toAddress);
+            personalization.addTo(toEmail);
+        });
+        //add cc email addresses
+        if(Objects.nonNull(ccEmailsList) && ccEmailsList.size() > 0){
+            ccEmailsList.forEach(ccAddress -> {
+                Email ccEmail = new Email(ccAddress);
+                personalization.addCc(ccEmail);
+            });
+        }
+        //add bcc email addresses
+        if(Objects.nonNull(bccEmailsList) && bccEmailsList.size() > 0){
+            bccEmailsList.forEach(bccAddress -> {
+                Email bccEmail = new Email(bccAddress);
+                personalization.addBcc(bccEmail);
+            });
+        }
+        return personalization;
+    }
+
+    private Request createRequest(Mail mail) throws IOException {
+        Request request = new Request();
+        request.setMethod(Method.POST);
+        request.setEndpoint(SENDGRID_ENDPOINT);
+        request.setBody(mail.build());
+        return request;
+    }
+
+    /**
+     * Method to stop the bulk mail sender, waits for the queued bulk mails to be sent.
+     */
+    public void shutdown() {
+        bulkExecutor.shutdown();
+        try {
+            bulkExecutor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            System.err.println("Error in shutting down bulk mail sender" + e.getLocalizedMessage());
         }
     }
     
     /**
      * Method to convert file into send grid specific attachment object.
+     * Encoded file content is cached, so the same unchanged file is read and encoded only once.
      *
      * @param filePath -- Path of the file to be converted into an attachment object.
      * @param attachmentFileType -- Type of the file to be converted. ex: application/pdf, application/json etc.,
@@ -133,16 +359,14 @@ public class SendGridMailService {
                 return Optional.empty();
             }
             Attachments attachment = new Attachments();
-            byte[] attachmentContentBytes = Files.readAllBytes(filePath);
-            String attachmentContent = Base64.getEncoder().encodeToString(attachmentContentBytes);
+            String attachmentContent = attachmentCache.getEncodedContent(filePath);
             attachment.setContent(attachmentContent);
             attachment.setType(attachmentFileType);
             attachment.setFilename(filePath.getFileName().toString());
             attachment.setDisposition("attachment");
             return Optional.of(attachment);
         } catch (IOException io) {
-            System.out.println("Error in reading and converting file ->" + filePath.toString());
-            io.printStackTrace();
+            LOG.error("attachment_failed", "path=" + filePath, io);
         }
         return Optional.empty();
     }
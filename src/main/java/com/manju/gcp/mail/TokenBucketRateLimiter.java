@@ -0,0 +1,54 @@
+package com.manju.gcp.mail;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket rate limiter, tokens are refilled continuously at the given rate up to the burst size.
+ */
+public class TokenBucketRateLimiter {
+
+    private final double permitsPerNano;
+    private final double maxPermits;
+
+    private double storedPermits;
+    private long lastRefillNanos;
+
+    /**
+     * @param permitsPerSecond -- Rate at which the tokens are refilled.
+     * @param burstSize -- Maximum number of tokens which can be stored.
+     */
+    public TokenBucketRateLimiter(double permitsPerSecond, int burstSize) {
+        if(permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("Permits per second should be greater than zero.");
+        }
+        if(burstSize < 1) {
+            throw new IllegalArgumentException("Burst size should be at least 1.");
+        }
+        this.permitsPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.maxPermits = burstSize;
+        this.storedPermits = burstSize;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * Method to take a token, blocks the caller until one is available.
+     */
+    public void acquire() throws InterruptedException {
+        long waitNanos;
+        synchronized (this) {
+            refill();
+            storedPermits -= 1;
+            //Reserve the token now and wait for it outside the lock, so callers are served in order.
+            waitNanos = storedPermits >= 0 ? 0L : (long) Math.ceil(-storedPermits / permitsPerNano);
+        }
+        if(waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        storedPermits = Math.min(maxPermits, storedPermits + (now - lastRefillNanos) * permitsPerNano);
+        lastRefillNanos = now;
+    }
+}
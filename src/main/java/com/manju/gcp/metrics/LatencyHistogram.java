@@ -0,0 +1,154 @@
+package com.manju.gcp.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock free log-linear histogram in the style of HDR histogram, used for latencies in nanoseconds and for sizes.
+ * Values below 128 have their own bucket, every higher power of two range is split into 64 buckets,
+ * so a recorded value is off by at most 1/64 of itself. Recording is three atomic updates and does not allocate.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_LIMIT = SUB_BUCKET_COUNT << 1;
+    private static final int BUCKET_COUNT = (63 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT + LINEAR_LIMIT - SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+
+    public void record(long value) {
+        long v = Math.max(0L, value);
+        counts.incrementAndGet(bucketIndex(v));
+        sum.add(v);
+        max.accumulate(v);
+    }
+
+    /**
+     * Method to record the time elapsed since the start time taken from System.nanoTime.
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public HistogramSnapshot snapshot() {
+        long[] bucketCounts = new long[BUCKET_COUNT];
+        long total = 0;
+        for(int i=0; i < BUCKET_COUNT; i++) {
+            bucketCounts[i] = counts.get(i);
+            total += bucketCounts[i];
+        }
+        return new HistogramSnapshot(total, sum.sum(), max.get(), bucketCounts);
+    }
+
+    static int bucketIndex(long value) {
+        if(value < LINEAR_LIMIT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKET_COUNT + (int) (value >>> shift);
+    }
+
+    static long bucketUpperBound(int index) {
+        if(index < LINEAR_LIMIT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        long subBucket = index % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    /**
+     * Point in time copy of the histogram.
+     */
+    public static class HistogramSnapshot {
+
+        private final long count;
+        private final long sum;
+        private final long max;
+        private final long[] bucketCounts;
+
+        HistogramSnapshot(long count, long sum, long max, long[] bucketCounts) {
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+            this.bucketCounts = bucketCounts;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getSum() {
+            return sum;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public long getMean() {
+            return count == 0 ? 0L : sum / count;
+        }
+
+        /**
+         * Method to get the value at the percentile, 0 to 100, as the upper bound of its bucket.
+         */
+        public long getPercentile(double percentile) {
+            if(count == 0) {
+                return 0L;
+            }
+            long rank = Math.max(1L, (long) Math.ceil(percentile / 100.0 * count));
+            long seen = 0;
+            for(int i=0; i < bucketCounts.length; i++) {
+                seen += bucketCounts[i];
+                if(seen >= rank) {
+                    return Math.min(bucketUpperBound(i), max);
+                }
+            }
+            return max;
+        }
+
+        /**
+         * Method to get the values recorded between the previous snapshot of the same histogram and this one.
+         * The max of the interval is the upper bound of its highest bucket, as the histogram keeps only the overall max.
+         */
+        public HistogramSnapshot intervalSince(HistogramSnapshot previous) {
+            long[] intervalCounts = new long[bucketCounts.length];
+            long total = 0;
+            int highest = -1;
+            for(int i=0; i < bucketCounts.length; i++) {
+                intervalCounts[i] = bucketCounts[i] - previous.bucketCounts[i];
+                if(intervalCounts[i] > 0) {
+                    total += intervalCounts[i];
+                    highest = i;
+                }
+            }
+            long intervalMax = highest < 0 ? 0L : Math.min(bucketUpperBound(highest), max);
+            return new HistogramSnapshot(total, sum - previous.sum, intervalMax, intervalCounts);
+        }
+
+        /**
+         * Method to describe the snapshot with values converted from nanoseconds to milliseconds.
+         */
+        public String toMillisString() {
+            return "count=" + count + " mean_ms=" + toMillis(getMean()) + " p50_ms=" + toMillis(getPercentile(50))
+                    + " p99_ms=" + toMillis(getPercentile(99)) + " p999_ms=" + toMillis(getPercentile(99.9)) + " max_ms=" + toMillis(max);
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + count + " mean=" + getMean() + " p50=" + getPercentile(50) + " p99=" + getPercentile(99)
+                    + " p999=" + getPercentile(99.9) + " max=" + max;
+        }
+
+        private static double toMillis(long nanos) {
+            return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+        }
+    }
+}
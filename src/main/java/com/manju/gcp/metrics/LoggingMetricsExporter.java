@@ -0,0 +1,21 @@
+package com.manju.gcp.metrics;
+
+/**
+ * Exporter which writes one structured line per metric to the standard output.
+ * Histograms with the .latency suffix are recorded in nanoseconds and written in milliseconds,
+ * their values are those of the export interval.
+ */
+public class LoggingMetricsExporter implements MetricsExporter {
+
+    @Override
+    public void export(MetricsSnapshot snapshot) {
+        long timestamp = snapshot.getTimestampMillis();
+        snapshot.getCounters().forEach((name, value) ->
+                System.out.println("ts=" + timestamp + " type=counter metric=" + name + " value=" + value));
+        snapshot.getGauges().forEach((name, value) ->
+                System.out.println("ts=" + timestamp + " type=gauge metric=" + name + " value=" + value));
+        snapshot.getHistograms().forEach((name, histogram) ->
+                System.out.println("ts=" + timestamp + " type=histogram metric=" + name + " "
+                        + (name.endsWith(".latency") ? histogram.toMillisString() : histogram.toString())));
+    }
+}
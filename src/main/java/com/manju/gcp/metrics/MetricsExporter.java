@@ -0,0 +1,10 @@
+package com.manju.gcp.metrics;
+
+/**
+ * Exporter of the metrics, called periodically by the registry with the current values of all metrics.
+ */
+public interface MetricsExporter {
+
+    void export(MetricsSnapshot snapshot);
+
+}
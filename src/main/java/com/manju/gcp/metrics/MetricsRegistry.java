@@ -0,0 +1,100 @@
+package com.manju.gcp.metrics;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
+
+/**
+ * Registry of the counters, gauges and histograms of all services.
+ * Metrics are looked up once by name, usually into static fields, so recording on the hot path is allocation free.
+ * Registered exporters are called periodically with a snapshot of all the metrics, histograms in the exported
+ * snapshots hold only the values recorded since the previous export.
+ */
+public class MetricsRegistry {
+
+    private static final MetricsRegistry DEFAULT = new MetricsRegistry();
+
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private final List<ScheduledExecutorService> exporterExecutors = new CopyOnWriteArrayList<>();
+
+    /**
+     * Method to get the registry shared by all the services.
+     */
+    public static MetricsRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    public Counter counter(String name) {
+        return counters.computeIfAbsent(name, key -> new Counter());
+    }
+
+    /**
+     * Method to get the histogram, names of latency histograms end with .latency and record nanoseconds.
+     */
+    public LatencyHistogram histogram(String name) {
+        return histograms.computeIfAbsent(name, key -> new LatencyHistogram());
+    }
+
+    /**
+     * Method to register a gauge, its value is read only when the metrics are exported.
+     * Registering a gauge with an existing name replaces the previous one.
+     */
+    public void gauge(String name, LongSupplier supplier) {
+        gauges.put(name, supplier);
+    }
+
+    public void removeGauge(String name) {
+        gauges.remove(name);
+    }
+
+    /**
+     * Method to get the current values of all the metrics, histograms hold all the values recorded so far.
+     */
+    public MetricsSnapshot snapshot() {
+        Map<String, Long> counterValues = new TreeMap<>();
+        counters.forEach((name, counter) -> counterValues.put(name, counter.get()));
+        Map<String, Long> gaugeValues = new TreeMap<>();
+        gauges.forEach((name, gauge) -> gaugeValues.put(name, gauge.getAsLong()));
+        Map<String, LatencyHistogram.HistogramSnapshot> histogramValues = new TreeMap<>();
+        histograms.forEach((name, histogram) -> histogramValues.put(name, histogram.snapshot()));
+        return new MetricsSnapshot(System.currentTimeMillis(), counterValues, gaugeValues, histogramValues);
+    }
+
+    /**
+     * Method to export the metrics of every period through the exporter on a background thread.
+     */
+    public void startExporter(MetricsExporter exporter, long period, TimeUnit timeUnit) {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-exporter-thread");
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicReference<MetricsSnapshot> previous = new AtomicReference<>(snapshot());
+        executor.scheduleAtFixedRate(() -> {
+            try {
+                MetricsSnapshot current = snapshot();
+                exporter.export(current.intervalSince(previous.getAndSet(current)));
+            } catch(Exception ex) {
+                System.err.println("Error in exporting metrics->" + ex.getLocalizedMessage());
+            }
+        }, period, period, timeUnit);
+        exporterExecutors.add(executor);
+    }
+
+    /**
+     * Method to stop all the exporters.
+     */
+    public void stopExporters() {
+        exporterExecutors.forEach(ScheduledExecutorService::shutdown);
+        exporterExecutors.clear();
+    }
+}
@@ -0,0 +1,54 @@
+package com.manju.gcp.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Point in time values of all the metrics of a registry, handed over to the exporters.
+ * Histograms are cumulative in a registry snapshot and hold the values of the export interval in the exporters.
+ */
+public class MetricsSnapshot {
+
+    private final long timestampMillis;
+    private final Map<String, Long> counters;
+    private final Map<String, Long> gauges;
+    private final Map<String, LatencyHistogram.HistogramSnapshot> histograms;
+
+    MetricsSnapshot(long timestampMillis, Map<String, Long> counters, Map<String, Long> gauges,
+                    Map<String, LatencyHistogram.HistogramSnapshot> histograms) {
+        this.timestampMillis = timestampMillis;
+        this.counters = Collections.unmodifiableMap(counters);
+        this.gauges = Collections.unmodifiableMap(gauges);
+        this.histograms = Collections.unmodifiableMap(histograms);
+    }
+
+    public long getTimestampMillis() {
+        return timestampMillis;
+    }
+
+    public Map<String, Long> getCounters() {
+        return counters;
+    }
+
+    public Map<String, Long> getGauges() {
+        return gauges;
+    }
+
+    public Map<String, LatencyHistogram.HistogramSnapshot> getHistograms() {
+        return histograms;
+    }
+
+    /**
+     * Method to get a snapshot whose histograms hold only the values recorded since the previous snapshot,
+     * counters stay cumulative and gauges are point in time values.
+     */
+    public MetricsSnapshot intervalSince(MetricsSnapshot previous) {
+        Map<String, LatencyHistogram.HistogramSnapshot> intervalHistograms = new TreeMap<>();
+        histograms.forEach((name, histogram) -> {
+            LatencyHistogram.HistogramSnapshot previousHistogram = previous.histograms.get(name);
+            intervalHistograms.put(name, previousHistogram == null ? histogram : histogram.intervalSince(previousHistogram));
+        });
+        return new MetricsSnapshot(timestampMillis, counters, gauges, intervalHistograms);
+    }
+}
@@ -0,0 +1,83 @@
+package com.manju.gcp.metrics;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Structured logger for the hot paths, writes key=value lines and keeps only one out of sample rate info lines.
+ * Errors are never sampled, they are capped at max errors per second instead and the next written error line reports
+ * how many were suppressed. Guard info lines with isSampled so the message is built only when it is written.
+ * The default sample rate is read from the gcp.sdk.log.sampleRate system property, 1000 if it is not set, and the default
+ * error cap from the gcp.sdk.log.maxErrorsPerSecond system property, 100 if it is not set.
+ */
+public class SampledLogger {
+
+    private static final int SAMPLE_RATE_DEFAULT = Integer.getInteger("gcp.sdk.log.sampleRate", 1000);
+    private static final int MAX_ERRORS_PER_SECOND_DEFAULT = Integer.getInteger("gcp.sdk.log.maxErrorsPerSecond", 100);
+
+    private final String component;
+    private final int sampleRate;
+    private final int maxErrorsPerSecond;
+    private final AtomicLong errorSecond = new AtomicLong();
+    private final AtomicInteger errorsInSecond = new AtomicInteger();
+    private final AtomicLong suppressedErrors = new AtomicLong();
+
+    public SampledLogger(Class<?> type) {
+        this(type, SAMPLE_RATE_DEFAULT);
+    }
+
+    public SampledLogger(Class<?> type, int sampleRate) {
+        this(type, sampleRate, MAX_ERRORS_PER_SECOND_DEFAULT);
+    }
+
+    /**
+     * @param sampleRate -- One out of sample rate info lines is written, 1 to write all of them.
+     * @param maxErrorsPerSecond -- Maximum number of error lines written in a second.
+     */
+    public SampledLogger(Class<?> type, int sampleRate, int maxErrorsPerSecond) {
+        if(sampleRate < 1) {
+            throw new IllegalArgumentException("Sample rate should be at least 1.");
+        }
+        if(maxErrorsPerSecond < 1) {
+            throw new IllegalArgumentException("Max errors per second should be at least 1.");
+        }
+        this.component = type.getSimpleName();
+        this.sampleRate = sampleRate;
+        this.maxErrorsPerSecond = maxErrorsPerSecond;
+    }
+
+    public boolean isSampled() {
+        return sampleRate == 1 || ThreadLocalRandom.current().nextInt(sampleRate) == 0;
+    }
+
+    /**
+     * Method to write an info line, callers on hot paths should check isSampled first.
+     */
+    public void info(String event, String details) {
+        System.out.println("level=INFO component=" + component + " event=" + event + (details == null ? "" : " " + details));
+    }
+
+    /**
+     * Method to write an error line, errors beyond max errors per second are counted and dropped.
+     */
+    public void error(String event, String details, Throwable throwable) {
+        long second = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+        long current = errorSecond.get();
+        if(second != current && errorSecond.compareAndSet(current, second)) {
+            errorsInSecond.set(0);
+        }
+        if(errorsInSecond.incrementAndGet() > maxErrorsPerSecond) {
+            suppressedErrors.incrementAndGet();
+            return;
+        }
+        long suppressed = suppressedErrors.getAndSet(0L);
+        System.err.println("level=ERROR component=" + component + " event=" + event + (details == null ? "" : " " + details)
+                + (throwable == null ? "" : " error=\"" + throwable.getLocalizedMessage() + "\"")
+                + (suppressed == 0 ? "" : " suppressed=" + suppressed));
+        if(throwable != null) {
+            throwable.printStackTrace();
+        }
+    }
+}
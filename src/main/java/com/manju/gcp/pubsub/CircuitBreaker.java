@@ -0,0 +1,82 @@
+package com.manju.gcp.pubsub;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Circuit breaker on the message processing failure rate.
+ * Failures and successes are counted in fixed windows, when the failure rate of a window crosses the threshold
+ * the circuit is opened and callers of awaitClosed are blocked until the open duration is over.
+ */
+public class CircuitBreaker {
+
+    private final double failureRateThreshold;
+    private final int minimumCalls;
+    private final long windowNanos;
+    private final long openNanos;
+
+    private long windowStart = System.nanoTime();
+    private int successCount;
+    private int failureCount;
+    private volatile long openUntil = windowStart;
+
+    /**
+     * @param failureRateThreshold -- Failure rate, 0 to 1, at which the circuit is opened.
+     * @param minimumCalls -- Minimum number of calls in a window before the failure rate is considered.
+     * @param window -- Length of the window in which the calls are counted.
+     * @param openDuration -- Time for which the circuit stays open.
+     */
+    public CircuitBreaker(double failureRateThreshold, int minimumCalls, long window, long openDuration, TimeUnit timeUnit) {
+        if(failureRateThreshold <= 0 || failureRateThreshold > 1) {
+            throw new IllegalArgumentException("Failure rate threshold should be greater than 0 and at most 1.");
+        }
+        this.failureRateThreshold = failureRateThreshold;
+        this.minimumCalls = minimumCalls;
+        this.windowNanos = timeUnit.toNanos(window);
+        this.openNanos = timeUnit.toNanos(openDuration);
+    }
+
+    public synchronized void recordSuccess() {
+        rollWindow();
+        successCount++;
+    }
+
+    public synchronized void recordFailure() {
+        rollWindow();
+        failureCount++;
+        int total = successCount + failureCount;
+        if(total >= minimumCalls && (double) failureCount / total >= failureRateThreshold && !isOpen()) {
+            openUntil = System.nanoTime() + openNanos;
+            successCount = 0;
+            failureCount = 0;
+            System.err.println("Circuit opened, failure rate crossed " + failureRateThreshold);
+        }
+    }
+
+    public boolean isOpen() {
+        return openUntil - System.nanoTime() > 0;
+    }
+
+    /**
+     * Method to block the caller while the circuit is open.
+     */
+    public void awaitClosed() {
+        long remaining;
+        while ((remaining = openUntil - System.nanoTime()) > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void rollWindow() {
+        long now = System.nanoTime();
+        if(now - windowStart >= windowNanos) {
+            windowStart = now;
+            successCount = 0;
+            failureCount = 0;
+        }
+    }
+}
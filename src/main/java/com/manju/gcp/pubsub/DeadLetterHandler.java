@@ -0,0 +1,13 @@
+package com.manju.gcp.pubsub;
+
+import com.google.pubsub.v1.PubsubMessage;
+
+/**
+ * Handler for the messages which failed to process even after all the retry attempts.
+ * The message is acked once the handler returns, it is nacked if the handler throws an exception.
+ */
+public interface DeadLetterHandler {
+
+    void handle(PubsubMessage message, Throwable cause);
+
+}
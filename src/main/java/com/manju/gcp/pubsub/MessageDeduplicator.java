@@ -0,0 +1,168 @@
+package com.manju.gcp.pubsub;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import com.google.pubsub.v1.PubsubMessage;
+
+/**
+ * Bounded, time-windowed set of processed message keys used to drop pub/sub redeliveries.
+ * Keys are stored as 64 bit hashes in two primitive open addressing tables (current and previous generation),
+ * the generations are rotated when the window elapses or the current one is full, so a processed key is
+ * remembered for at least one window unless more than maxEntries / 2 keys are processed within it.
+ */
+public class MessageDeduplicator {
+
+    private static final long EMPTY = 0L;
+
+    private final Function<PubsubMessage, String> keyExtractor;
+    private final int generationMaxSize;
+    private final long windowNanos;
+
+    private long[] current;
+    private long[] previous;
+    private int currentSize;
+    private long generationStart;
+
+    private final AtomicLong duplicateCount = new AtomicLong();
+
+    /**
+     * Constructor to dedup messages by pub/sub message id.
+     *
+     * @param maxEntries -- Maximum number of keys remembered across both generations.
+     * @param window -- Minimum time a processed key is remembered.
+     * @param timeUnit -- Time unit of the window.
+     */
+    public MessageDeduplicator(int maxEntries, long window, TimeUnit timeUnit) {
+        this(maxEntries, window, timeUnit, PubsubMessage::getMessageId);
+    }
+
+    /**
+     * Constructor to dedup messages by a user supplied idempotency key.
+     *
+     * @param keyExtractor -- Function to extract the idempotency key from the message, ex: an attribute value.
+     */
+    public MessageDeduplicator(int maxEntries, long window, TimeUnit timeUnit, Function<PubsubMessage, String> keyExtractor) {
+        if(maxEntries < 2) {
+            throw new IllegalArgumentException("Max entries should be at least 2.");
+        }
+        if(window <= 0) {
+            throw new IllegalArgumentException("Window should be greater than zero.");
+        }
+        if(keyExtractor == null) {
+            throw new IllegalArgumentException("Key extractor cannot be null.");
+        }
+        this.keyExtractor = keyExtractor;
+        this.generationMaxSize = maxEntries / 2;
+        this.windowNanos = timeUnit.toNanos(window);
+        //Keep load factor at or below 0.5 so probe sequences stay short.
+        int capacity = Integer.highestOneBit(generationMaxSize * 2 - 1) << 1;
+        this.current = new long[capacity];
+        this.previous = new long[capacity];
+        this.generationStart = System.nanoTime();
+    }
+
+    /**
+     * Method to check whether the message was already processed, counts a dedup hit if it was.
+     */
+    public boolean isDuplicate(PubsubMessage message) {
+        long hash = hash(message);
+        if(hash == EMPTY) {
+            return false;
+        }
+        boolean duplicate;
+        synchronized (this) {
+            rotateIfExpired();
+            duplicate = contains(current, hash) || contains(previous, hash);
+        }
+        if(duplicate) {
+            duplicateCount.incrementAndGet();
+        }
+        return duplicate;
+    }
+
+    /**
+     * Method to remember the message as processed, call it only once the message is acked.
+     */
+    public void markProcessed(PubsubMessage message) {
+        long hash = hash(message);
+        if(hash == EMPTY) {
+            return;
+        }
+        synchronized (this) {
+            rotateIfExpired();
+            if(contains(current, hash)) {
+                return;
+            }
+            if(currentSize >= generationMaxSize) {
+                rotate();
+            }
+            insert(current, hash);
+            currentSize++;
+        }
+    }
+
+    /**
+     * Method to get the number of duplicate messages detected.
+     */
+    public long getDuplicateCount() {
+        return duplicateCount.get();
+    }
+
+    private void rotateIfExpired() {
+        if(System.nanoTime() - generationStart >= windowNanos) {
+            rotate();
+        }
+    }
+
+    private void rotate() {
+        long[] recycled = previous;
+        Arrays.fill(recycled, EMPTY);
+        previous = current;
+        current = recycled;
+        currentSize = 0;
+        generationStart = System.nanoTime();
+    }
+
+    private static boolean contains(long[] table, long hash) {
+        int mask = table.length - 1;
+        for(int i = (int) hash & mask; ; i = (i + 1) & mask) {
+            long value = table[i];
+            if(value == EMPTY) {
+                return false;
+            }
+            if(value == hash) {
+                return true;
+            }
+        }
+    }
+
+    private static void insert(long[] table, long hash) {
+        int mask = table.length - 1;
+        int i = (int) hash & mask;
+        while(table[i] != EMPTY) {
+            i = (i + 1) & mask;
+        }
+        table[i] = hash;
+    }
+
+    /**
+     * Method to hash the idempotency key with 64 bit FNV-1a followed by a final mix, returns 0 if there is no key.
+     */
+    private long hash(PubsubMessage message) {
+        String key = keyExtractor.apply(message);
+        if(key == null || key.isEmpty()) {
+            return EMPTY;
+        }
+        long hash = 0xcbf29ce484222325L;
+        for(int i=0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash == EMPTY ? 1L : hash;
+    }
+}
@@ -2,26 +2,120 @@ package com.manju.gcp.pubsub;
 
 import com.google.cloud.pubsub.v1.AckReplyConsumer;
 import com.google.pubsub.v1.PubsubMessage;
+import com.manju.gcp.metrics.Counter;
+import com.manju.gcp.metrics.LatencyHistogram;
+import com.manju.gcp.metrics.MetricsRegistry;
+import com.manju.gcp.metrics.SampledLogger;
 
 public class MessageProcessing implements Runnable {
   
+  private static final SampledLogger LOG = new SampledLogger(MessageProcessing.class);
+  private static final LatencyHistogram QUEUE_WAIT_LATENCY = MetricsRegistry.getDefault().histogram("pubsub.queue.wait.latency");
+  private static final LatencyHistogram HANDLER_LATENCY = MetricsRegistry.getDefault().histogram("pubsub.handler.latency");
+  private static final LatencyHistogram ACK_LATENCY = MetricsRegistry.getDefault().histogram("pubsub.ack.latency");
+  private static final Counter PROCESSED = MetricsRegistry.getDefault().counter("pubsub.messages.processed");
+  private static final Counter FAILED = MetricsRegistry.getDefault().counter("pubsub.messages.failed");
+  
   private PubsubMessage pubsubMessage;
 
   private AckReplyConsumer consumer;
 
+  private MessageDeduplicator messageDeduplicator;
+
+  private ProcessingLagStats processingLagStats;
+
+  private RetryScheduler retryScheduler;
+
+  private final long createdNanos;
+
+  private long receivedNanos;
+
+  private int attempt;
+
   public MessageProcessing(PubsubMessage pubsubMessage, AckReplyConsumer consumer) {
+      this(pubsubMessage, consumer, null);
+  }
+
+  public MessageProcessing(PubsubMessage pubsubMessage, AckReplyConsumer consumer, MessageDeduplicator messageDeduplicator) {
+      this(pubsubMessage, consumer, messageDeduplicator, null, null);
+  }
+
+  /**
+   * Constructor to process the message and remember it as processed in the deduplicator once it is acked.
+   * Queue wait, handler and ack latencies are recorded into the registry histograms and into the stats of the receiver if present,
+   * the message is considered received when this is created.
+   * Failed messages are handed over to the retry scheduler if present, otherwise they are nacked right away.
+   */
+  public MessageProcessing(PubsubMessage pubsubMessage, AckReplyConsumer consumer, MessageDeduplicator messageDeduplicator,
+                           ProcessingLagStats processingLagStats, RetryScheduler retryScheduler) {
       this.pubsubMessage = pubsubMessage;
       this.consumer = consumer;
+      this.messageDeduplicator = messageDeduplicator;
+      this.processingLagStats = processingLagStats;
+      this.retryScheduler = retryScheduler;
+      this.createdNanos = System.nanoTime();
+      this.receivedNanos = createdNanos;
+  }
+
+  public PubsubMessage getPubsubMessage() {
+      return pubsubMessage;
+  }
+
+  public AckReplyConsumer getConsumer() {
+      return consumer;
+  }
+
+  /**
+   * Method to get the time the message was first received, retries do not change it.
+   */
+  long getCreatedNanos() {
+      return createdNanos;
+  }
+
+  /**
+   * Method to count a failed attempt, returns the number of failed attempts so far.
+   */
+  int incrementAttempt() {
+      return ++attempt;
+  }
+
+  /**
+   * Method to restart the queue wait time when the message is resubmitted for a retry.
+   */
+  void markResubmitted() {
+      receivedNanos = System.nanoTime();
   }
   
   public void run() {
+    long startNanos = System.nanoTime();
+    QUEUE_WAIT_LATENCY.record(startNanos - receivedNanos);
     try {
-      System.out.println("Got Message from queue:" + pubsubMessage.getData().toStringUtf8());
+      if(LOG.isSampled()) {
+        LOG.info("message_received", "messageId=" + pubsubMessage.getMessageId() + " data=\"" + pubsubMessage.getData().toStringUtf8() + "\"");
+      }
+      long handledNanos = System.nanoTime();
+      HANDLER_LATENCY.record(handledNanos - startNanos);
       consumer.ack();
+      long ackedNanos = System.nanoTime();
+      ACK_LATENCY.record(ackedNanos - handledNanos);
+      PROCESSED.increment();
+      if(processingLagStats != null) {
+        processingLagStats.recordProcessed(startNanos - receivedNanos, handledNanos - startNanos, ackedNanos - handledNanos);
+      }
+      if(messageDeduplicator != null) {
+        messageDeduplicator.markProcessed(pubsubMessage);
+      }
+      if(retryScheduler != null) {
+        retryScheduler.recordSuccess();
+      }
     } catch(Exception ex) {
-      consumer.nack();
-      System.err.println("Error in processing message from pubsub->" + pubsubMessage.getData().toStringUtf8() + ", Error:" + ex.getLocalizedMessage());
-      ex.printStackTrace();
+      if(retryScheduler != null) {
+        retryScheduler.retry(this, ex);
+      } else {
+        consumer.nack();
+      }
+      FAILED.increment();
+      LOG.error("message_failed", "messageId=" + pubsubMessage.getMessageId() + " data=\"" + pubsubMessage.getData().toStringUtf8() + "\"", ex);
     }
   }
   
@@ -1,23 +1,106 @@
 package com.manju.gcp.pubsub;
 
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import com.google.cloud.pubsub.v1.AckReplyConsumer;
 import com.google.cloud.pubsub.v1.MessageReceiver;
+import com.google.protobuf.util.Timestamps;
 import com.google.pubsub.v1.PubsubMessage;
+import com.manju.gcp.metrics.Counter;
+import com.manju.gcp.metrics.LatencyHistogram;
+import com.manju.gcp.metrics.MetricsRegistry;
 
 public class MessageReceiverImpl implements MessageReceiver {
   
+  private static final Counter DEDUP_HITS = MetricsRegistry.getDefault().counter("pubsub.dedup.hits");
+  private static final LatencyHistogram DELIVERY_LATENCY = MetricsRegistry.getDefault().histogram("pubsub.delivery.latency");
+  private static final AtomicInteger RECEIVER_IDS = new AtomicInteger();
+  
   private WorkerPool workerPool;
   
+  private MessageDeduplicator messageDeduplicator;
+  
+  private ProcessingLagStats processingLagStats = new ProcessingLagStats();
+  
+  private RetryScheduler retryScheduler;
+  
+  private String queueSizeGauge;
+  
   public MessageReceiverImpl() {
+    this(null);
+  }
+  
+  /**
+   * Constructor with an optional deduplicator, redelivered messages already processed are acked without running the handler.
+   */
+  public MessageReceiverImpl(MessageDeduplicator messageDeduplicator) {
+    this(messageDeduplicator, null);
+  }
+  
+  /**
+   * Constructor with an optional deduplicator and an optional retry scheduler.
+   * With the retry scheduler failed messages are retried with backoff instead of nacked and receiving messages
+   * is paused while its circuit breaker is open.
+   */
+  public MessageReceiverImpl(MessageDeduplicator messageDeduplicator, RetryScheduler retryScheduler) {
     workerPool = new WorkerPool(100, 5, 5, 60, TimeUnit.SECONDS);
+    this.messageDeduplicator = messageDeduplicator;
+    this.retryScheduler = retryScheduler;
+    if(retryScheduler != null) {
+      retryScheduler.start(workerPool::submit);
+    }
+    //Every receiver has its own worker pool, so its queue size is exported under its own name.
+    queueSizeGauge = "pubsub.workerpool.queue.size.receiver-" + RECEIVER_IDS.incrementAndGet();
+    MetricsRegistry.getDefault().gauge(queueSizeGauge, workerPool::getQueueSize);
   }
   
   /**
    * Method to receive message from pub/sub subscription and then submit it into worker queue.
    */
   public void receiveMessage(PubsubMessage message, AckReplyConsumer consumer) {
-    workerPool.submit(new MessageProcessing(message, consumer));
+    if(retryScheduler != null) {
+      //Blocking the receiver holds back the flow control of the subscriber, which pauses pulling.
+      retryScheduler.getCircuitBreaker().awaitClosed();
+    }
+    if(message.hasPublishTime()) {
+      long messageAgeMillis = System.currentTimeMillis() - Timestamps.toMillis(message.getPublishTime());
+      DELIVERY_LATENCY.record(TimeUnit.MILLISECONDS.toNanos(Math.max(0L, messageAgeMillis)));
+      processingLagStats.recordReceived(messageAgeMillis);
+    }
+    if(messageDeduplicator != null && messageDeduplicator.isDuplicate(message)) {
+      DEDUP_HITS.increment();
+      consumer.ack();
+      return;
+    }
+    workerPool.submit(new MessageProcessing(message, consumer, messageDeduplicator, processingLagStats, retryScheduler));
+  }
+  
+  /**
+   * Method to get the lag stats of the received and processed messages.
+   */
+  public ProcessingLagStats getProcessingLagStats() {
+    return processingLagStats;
+  }
+  
+  /**
+   * Method to get the number of messages waiting in the worker queue.
+   */
+  public int getQueueSize() {
+    return workerPool.getQueueSize();
+  }
+  
+  /**
+   * Method to get the capacity of the worker queue.
+   */
+  public int getQueueCapacity() {
+    return workerPool.getQueueCapacity();
+  }
+  
+  /**
+   * Method to get the number of worker threads processing the queue.
+   */
+  public int getWorkerThreadsCount() {
+    return workerPool.getThreadsCount();
   }
   
   /**
@@ -25,6 +108,10 @@ public class MessageReceiverImpl implements MessageReceiver {
    */
   public void shutdown() {
     System.out.println("Shutting down message receiver worker queue");
+    MetricsRegistry.getDefault().removeGauge(queueSizeGauge);
+    if(retryScheduler != null) {
+      retryScheduler.shutdown();
+    }
     workerPool.close();
   }
 
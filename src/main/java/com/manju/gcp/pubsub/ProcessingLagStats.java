@@ -0,0 +1,144 @@
+package com.manju.gcp.pubsub;
+
+import java.util.concurrent.TimeUnit;
+import com.manju.gcp.metrics.LatencyHistogram;
+
+/**
+ * Local consumer signals of one receiver, message age at receipt, queue wait, handler and ack latency.
+ * Values are recorded into histograms of this instance, so receivers in the same process do not see each others traffic,
+ * each call of snapshotAndReset diffs them against the previous call so each snapshot describes one interval.
+ */
+public class ProcessingLagStats {
+
+    private final LatencyHistogram deliveryLatency = new LatencyHistogram();
+    private final LatencyHistogram queueWaitLatency = new LatencyHistogram();
+    private final LatencyHistogram handlerLatency = new LatencyHistogram();
+    private final LatencyHistogram ackLatency = new LatencyHistogram();
+
+    private LatencyHistogram.HistogramSnapshot delivery = deliveryLatency.snapshot();
+    private LatencyHistogram.HistogramSnapshot queueWait = queueWaitLatency.snapshot();
+    private LatencyHistogram.HistogramSnapshot handler = handlerLatency.snapshot();
+    private LatencyHistogram.HistogramSnapshot ack = ackLatency.snapshot();
+    private long intervalStartNanos = System.nanoTime();
+
+    public static class Snapshot {
+
+        private final long receivedCount;
+        private final long averageMessageAgeMillis;
+        private final long maxMessageAgeMillis;
+        private final long processedCount;
+        private final long averageQueueWaitMillis;
+        private final long averageHandlerMillis;
+        private final long averageAckMillis;
+        private final long busyNanos;
+        private final long intervalNanos;
+
+        Snapshot(long receivedCount, long averageMessageAgeMillis, long maxMessageAgeMillis, long processedCount,
+                 long averageQueueWaitMillis, long averageHandlerMillis, long averageAckMillis, long busyNanos, long intervalNanos) {
+            this.receivedCount = receivedCount;
+            this.averageMessageAgeMillis = averageMessageAgeMillis;
+            this.maxMessageAgeMillis = maxMessageAgeMillis;
+            this.processedCount = processedCount;
+            this.averageQueueWaitMillis = averageQueueWaitMillis;
+            this.averageHandlerMillis = averageHandlerMillis;
+            this.averageAckMillis = averageAckMillis;
+            this.busyNanos = busyNanos;
+            this.intervalNanos = intervalNanos;
+        }
+
+        public long getReceivedCount() {
+            return receivedCount;
+        }
+
+        public long getAverageMessageAgeMillis() {
+            return averageMessageAgeMillis;
+        }
+
+        public long getMaxMessageAgeMillis() {
+            return maxMessageAgeMillis;
+        }
+
+        public long getProcessedCount() {
+            return processedCount;
+        }
+
+        public long getAverageQueueWaitMillis() {
+            return averageQueueWaitMillis;
+        }
+
+        public long getAverageHandlerMillis() {
+            return averageHandlerMillis;
+        }
+
+        public long getAverageAckMillis() {
+            return averageAckMillis;
+        }
+
+        /**
+         * Method to get the share of the interval the workers spent in handling and acking messages, 1.0 when all of them were busy.
+         */
+        public double getWorkerUtilization(int workerThreads) {
+            if(workerThreads <= 0 || intervalNanos <= 0) {
+                return 0.0;
+            }
+            return (double) busyNanos / ((double) workerThreads * intervalNanos);
+        }
+
+        @Override
+        public String toString() {
+            return "received=" + receivedCount + ", avgAgeMs=" + averageMessageAgeMillis + ", maxAgeMs=" + maxMessageAgeMillis
+                    + ", processed=" + processedCount + ", avgQueueWaitMs=" + averageQueueWaitMillis
+                    + ", avgHandlerMs=" + averageHandlerMillis + ", avgAckMs=" + averageAckMillis
+                    + ", busyMs=" + TimeUnit.NANOSECONDS.toMillis(busyNanos) + ", intervalMs=" + TimeUnit.NANOSECONDS.toMillis(intervalNanos);
+        }
+    }
+
+    /**
+     * Method to record the age of a message, time between publish and receipt, when it is received.
+     */
+    public void recordReceived(long messageAgeMillis) {
+        deliveryLatency.record(TimeUnit.MILLISECONDS.toNanos(Math.max(0L, messageAgeMillis)));
+    }
+
+    /**
+     * Method to record the latencies of a processed message.
+     *
+     * @param queueWaitNanos -- Time between receipt and the start of the handler.
+     * @param handlerNanos -- Time spent in the handler.
+     * @param ackNanos -- Time spent in acknowledging the message.
+     */
+    public void recordProcessed(long queueWaitNanos, long handlerNanos, long ackNanos) {
+        queueWaitLatency.record(queueWaitNanos);
+        handlerLatency.record(handlerNanos);
+        ackLatency.record(ackNanos);
+    }
+
+    /**
+     * Method to take the values of the current interval and start a new one.
+     */
+    public synchronized Snapshot snapshotAndReset() {
+        LatencyHistogram.HistogramSnapshot currentDelivery = deliveryLatency.snapshot();
+        LatencyHistogram.HistogramSnapshot currentQueueWait = queueWaitLatency.snapshot();
+        LatencyHistogram.HistogramSnapshot currentHandler = handlerLatency.snapshot();
+        LatencyHistogram.HistogramSnapshot currentAck = ackLatency.snapshot();
+        long now = System.nanoTime();
+        LatencyHistogram.HistogramSnapshot intervalDelivery = currentDelivery.intervalSince(delivery);
+        LatencyHistogram.HistogramSnapshot intervalQueueWait = currentQueueWait.intervalSince(queueWait);
+        LatencyHistogram.HistogramSnapshot intervalHandler = currentHandler.intervalSince(handler);
+        LatencyHistogram.HistogramSnapshot intervalAck = currentAck.intervalSince(ack);
+        long interval = now - intervalStartNanos;
+        delivery = currentDelivery;
+        queueWait = currentQueueWait;
+        handler = currentHandler;
+        ack = currentAck;
+        intervalStartNanos = now;
+        return new Snapshot(intervalDelivery.getCount(),
+                TimeUnit.NANOSECONDS.toMillis(intervalDelivery.getMean()),
+                TimeUnit.NANOSECONDS.toMillis(intervalDelivery.getMax()),
+                intervalHandler.getCount(),
+                TimeUnit.NANOSECONDS.toMillis(intervalQueueWait.getMean()),
+                TimeUnit.NANOSECONDS.toMillis(intervalHandler.getMean()),
+                TimeUnit.NANOSECONDS.toMillis(intervalAck.getMean()),
+                intervalHandler.getSum() + intervalAck.getSum(), interval);
+    }
+}
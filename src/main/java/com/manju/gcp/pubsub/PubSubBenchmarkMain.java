@@ -0,0 +1,384 @@
+package com.manju.gcp.pubsub;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import com.google.cloud.pubsub.v1.AckReplyConsumer;
+import com.google.cloud.pubsub.v1.SubscriptionAdminClient;
+import com.google.cloud.pubsub.v1.SubscriptionAdminSettings;
+import com.google.cloud.pubsub.v1.TopicAdminClient;
+import com.google.cloud.pubsub.v1.TopicAdminSettings;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.util.Timestamps;
+import com.google.pubsub.v1.ProjectSubscriptionName;
+import com.google.pubsub.v1.ProjectTopicName;
+import com.google.pubsub.v1.PubsubMessage;
+import com.google.pubsub.v1.PushConfig;
+import com.manju.gcp.metrics.Counter;
+import com.manju.gcp.metrics.LatencyHistogram;
+import com.manju.gcp.metrics.MetricsRegistry;
+
+/**
+ * Throughput benchmark of the pub/sub services.
+ * The steady, burst and soak profiles run the subscriber pipeline offline, MessageReceiverImpl -> WorkerPool -> MessageProcessing,
+ * messages are generated in process and acked through a fake AckReplyConsumer, so no GCP project is needed.
+ * The publish profile publishes through a sharded PubSubService and consumes through a StreamingService, it needs the
+ * pub/sub emulator, PUBSUB_EMULATOR_HOST set to its host:port, and creates its own topic and subscription in the project
+ * of PUBSUB_PROJECT_ID, benchmark-project if it is not set.
+ * The profile first runs for the warm up period so the JIT and the worker threads settle, only the run after it is measured.
+ *
+ * Arguments: [profile] [durationSeconds] [messagesPerSecond] [warmupSeconds] [publishersCount]
+ *   profile -- steady (fixed rate), burst (one second at the rate, one second idle), soak (long run at the fixed rate
+ *              with a progress line every 10 seconds) or publish (fixed rate through the emulator), default steady.
+ *   durationSeconds -- Length of the measured run, default 30 and 600 for soak.
+ *   messagesPerSecond -- Target rate, 0 for unbounded, default 10000.
+ *   warmupSeconds -- Length of the warm up run, default 5.
+ *   publishersCount -- Number of sharded publishers of the publish profile, default 4.
+ *
+ * Reports messages/sec, end to end latency percentiles from receipt to ack, queue wait percentiles from the
+ * pubsub.queue.wait.latency histogram and allocation per message. The publish profile reports publish throughput and
+ * latency, delivered messages and the publish to receipt latency instead of the receipt to ack latency.
+ */
+public class PubSubBenchmarkMain {
+
+  private static final long SOAK_REPORT_INTERVAL_SECONDS = 10L;
+
+  private static class FakeAckReplyConsumer implements AckReplyConsumer {
+
+    private final long receivedNanos;
+    private final Recorder recorder;
+
+    FakeAckReplyConsumer(long receivedNanos, Recorder recorder) {
+      this.receivedNanos = receivedNanos;
+      this.recorder = recorder;
+    }
+
+    @Override
+    public void ack() {
+      recorder.record(System.nanoTime() - receivedNanos, true);
+    }
+
+    @Override
+    public void nack() {
+      recorder.record(System.nanoTime() - receivedNanos, false);
+    }
+  }
+
+  private static class Recorder {
+
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final AtomicLong ackedCount = new AtomicLong();
+    private final AtomicLong nackedCount = new AtomicLong();
+
+    void record(long latencyNanos, boolean acked) {
+      latencies.record(latencyNanos);
+      if(acked) {
+        ackedCount.incrementAndGet();
+      } else {
+        nackedCount.incrementAndGet();
+      }
+    }
+
+    long completedCount() {
+      return ackedCount.get() + nackedCount.get();
+    }
+  }
+
+  public static void main(String[] args) throws InterruptedException {
+    String profile = args.length > 0 ? args[0] : "steady";
+    if(!"steady".equals(profile) && !"burst".equals(profile) && !"soak".equals(profile) && !"publish".equals(profile)) {
+      throw new IllegalArgumentException("Profile should be one of steady, burst, soak or publish.");
+    }
+    long durationSeconds = args.length > 1 ? Long.parseLong(args[1]) : ("soak".equals(profile) ? 600L : 30L);
+    long messagesPerSecond = args.length > 2 ? Long.parseLong(args[2]) : 10_000L;
+    long warmupSeconds = args.length > 3 ? Long.parseLong(args[3]) : 5L;
+    if("publish".equals(profile)) {
+      int publishersCount = args.length > 4 ? Integer.parseInt(args[4]) : 4;
+      runPublishProfile(durationSeconds, messagesPerSecond, warmupSeconds, publishersCount);
+      System.exit(0);
+    }
+
+    MessageReceiverImpl receiver = new MessageReceiverImpl();
+    LatencyHistogram queueWaitLatency = MetricsRegistry.getDefault().histogram("pubsub.queue.wait.latency");
+    ByteString payload = ByteString.copyFromUtf8(String.format("%0256d", 0));
+
+    PrintStream out = discardStdout();
+
+    Recorder warmupRecorder = new Recorder();
+    long warmupSent = run(profile, receiver, warmupRecorder, payload, 0L, warmupSeconds, messagesPerSecond, null);
+    drain(warmupRecorder, warmupSent);
+
+    Recorder recorder = new Recorder();
+    LatencyHistogram.HistogramSnapshot queueWaitBefore = queueWaitLatency.snapshot();
+    long allocatedBefore = totalAllocatedBytes();
+    long startNanos = System.nanoTime();
+    long sent = run(profile, receiver, recorder, payload, warmupSent, durationSeconds, messagesPerSecond,
+            "soak".equals(profile) ? out : null);
+    drain(recorder, sent);
+    long completedNanos = System.nanoTime();
+    long allocatedAfter = totalAllocatedBytes();
+    LatencyHistogram.HistogramSnapshot queueWait = queueWaitLatency.snapshot().intervalSince(queueWaitBefore);
+    receiver.shutdown();
+    System.setOut(out);
+
+    long completed = recorder.completedCount();
+    LatencyHistogram.HistogramSnapshot latencies = recorder.latencies.snapshot();
+    double elapsedSeconds = (completedNanos - startNanos) / 1e9;
+    System.out.println("Profile: " + profile + ", warm up: " + warmupSeconds + "s, duration: " + durationSeconds + "s, target rate: "
+            + (messagesPerSecond > 0 ? messagesPerSecond + " msg/s" : "unbounded"));
+    System.out.println("Messages sent: " + sent + ", acked: " + recorder.ackedCount.get() + ", nacked: " + recorder.nackedCount.get());
+    System.out.printf("Throughput: %.1f msg/s%n", completed / elapsedSeconds);
+    System.out.printf("End to end latency (ms): p50=%.3f p90=%.3f p99=%.3f p99.9=%.3f max=%.3f%n",
+            latencies.getPercentile(50) / 1e6, latencies.getPercentile(90) / 1e6, latencies.getPercentile(99) / 1e6,
+            latencies.getPercentile(99.9) / 1e6, latencies.getMax() / 1e6);
+    System.out.printf("Queue wait (us): p50=%.1f p90=%.1f p99=%.1f p99.9=%.1f max=%.1f%n",
+            queueWait.getPercentile(50) / 1e3, queueWait.getPercentile(90) / 1e3, queueWait.getPercentile(99) / 1e3,
+            queueWait.getPercentile(99.9) / 1e3, queueWait.getMax() / 1e3);
+    if(allocatedBefore >= 0 && completed > 0) {
+      System.out.println("Allocation per message (bytes): " + (allocatedAfter - allocatedBefore) / completed);
+    }
+    System.exit(0);
+  }
+
+  /**
+   * Method to send messages of the profile for the duration, returns the number of messages sent.
+   * Progress lines with the throughput and latency of every interval are written to the report stream if present.
+   */
+  private static long run(String profile, MessageReceiverImpl receiver, Recorder recorder, ByteString payload, long firstId,
+                          long durationSeconds, long messagesPerSecond, PrintStream report) {
+    long startNanos = System.nanoTime();
+    long endNanos = startNanos + TimeUnit.SECONDS.toNanos(durationSeconds);
+    long intervalNanos = messagesPerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / messagesPerSecond : 0L;
+    long reportIntervalNanos = TimeUnit.SECONDS.toNanos(SOAK_REPORT_INTERVAL_SECONDS);
+    long nextReportNanos = startNanos + reportIntervalNanos;
+    long reportCompleted = 0;
+    LatencyHistogram.HistogramSnapshot reportLatencies = recorder.latencies.snapshot();
+    long nextSendNanos = startNanos;
+    long sent = 0;
+    long now;
+    while((now = System.nanoTime()) < endNanos) {
+      if(report != null && now >= nextReportNanos) {
+        LatencyHistogram.HistogramSnapshot currentLatencies = recorder.latencies.snapshot();
+        LatencyHistogram.HistogramSnapshot intervalLatencies = currentLatencies.intervalSince(reportLatencies);
+        long completed = recorder.completedCount();
+        Runtime runtime = Runtime.getRuntime();
+        report.printf("t=%ds throughput=%.1f msg/s p99_ms=%.3f max_ms=%.3f queue=%d heap_used_mb=%d%n",
+                TimeUnit.NANOSECONDS.toSeconds(now - startNanos),
+                (completed - reportCompleted) / (double) SOAK_REPORT_INTERVAL_SECONDS,
+                intervalLatencies.getPercentile(99) / 1e6, intervalLatencies.getMax() / 1e6, receiver.getQueueSize(),
+                (runtime.totalMemory() - runtime.freeMemory()) / (1024 * 1024));
+        reportLatencies = currentLatencies;
+        reportCompleted = completed;
+        nextReportNanos += reportIntervalNanos;
+      }
+      if("burst".equals(profile) && TimeUnit.NANOSECONDS.toSeconds(now - startNanos) % 2 == 1) {
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        nextSendNanos = System.nanoTime();
+        continue;
+      }
+      if(intervalNanos > 0) {
+        if(now < nextSendNanos) {
+          LockSupport.parkNanos(nextSendNanos - now);
+          continue;
+        }
+        nextSendNanos += intervalNanos;
+      }
+      PubsubMessage message = PubsubMessage.newBuilder()
+              .setMessageId(Long.toString(firstId + sent))
+              .setData(payload)
+              .setPublishTime(Timestamps.fromMillis(System.currentTimeMillis()))
+              .build();
+      receiver.receiveMessage(message, new FakeAckReplyConsumer(System.nanoTime(), recorder));
+      sent++;
+    }
+    return sent;
+  }
+
+  /**
+   * Method to publish through the sharded publishers and consume through the streaming service against the emulator.
+   */
+  private static void runPublishProfile(long durationSeconds, long messagesPerSecond, long warmupSeconds, int publishersCount)
+          throws InterruptedException {
+    if(!PubSubEmulator.isEnabled()) {
+      throw new IllegalStateException("Publish profile needs the pub/sub emulator, set " + PubSubEmulator.EMULATOR_HOST_ENV + " to its host:port.");
+    }
+    String projectId = System.getenv("PUBSUB_PROJECT_ID") == null ? "benchmark-project" : System.getenv("PUBSUB_PROJECT_ID");
+    String suffix = Long.toString(System.currentTimeMillis());
+    ProjectTopicName topicName = ProjectTopicName.of(projectId, "benchmark-topic-" + suffix);
+    ProjectSubscriptionName subscriptionName = ProjectSubscriptionName.of(projectId, "benchmark-subscription-" + suffix);
+    try (TopicAdminClient topicAdminClient = TopicAdminClient.create(TopicAdminSettings.newBuilder()
+                 .setTransportChannelProvider(PubSubEmulator.newChannelProvider())
+                 .setCredentialsProvider(PubSubEmulator.credentialsProvider()).build());
+         SubscriptionAdminClient subscriptionAdminClient = SubscriptionAdminClient.create(SubscriptionAdminSettings.newBuilder()
+                 .setTransportChannelProvider(PubSubEmulator.newChannelProvider())
+                 .setCredentialsProvider(PubSubEmulator.credentialsProvider()).build())) {
+      topicAdminClient.createTopic(topicName);
+      subscriptionAdminClient.createSubscription(subscriptionName, topicName, PushConfig.getDefaultInstance(), 60);
+      try {
+        benchmarkPublish(projectId, topicName.getTopic(), subscriptionName.getSubscription(),
+                durationSeconds, messagesPerSecond, warmupSeconds, publishersCount);
+      } finally {
+        subscriptionAdminClient.deleteSubscription(subscriptionName);
+        topicAdminClient.deleteTopic(topicName);
+      }
+    } catch(IOException io) {
+      throw new RuntimeException(io);
+    }
+  }
+
+  private static void benchmarkPublish(String projectId, String topicId, String subscriptionId, long durationSeconds,
+                                       long messagesPerSecond, long warmupSeconds, int publishersCount) throws InterruptedException {
+    MetricsRegistry registry = MetricsRegistry.getDefault();
+    LatencyHistogram publishLatency = registry.histogram("pubsub.publish.latency");
+    LatencyHistogram deliveryLatency = registry.histogram("pubsub.delivery.latency");
+    LatencyHistogram queueWaitLatency = registry.histogram("pubsub.queue.wait.latency");
+    Counter processed = registry.counter("pubsub.messages.processed");
+    String payload = String.format("%0256d", 0);
+
+    PubSubService pubSubService = new PubSubService(projectId, topicId, publishersCount);
+    StreamingService streamingService = new StreamingService(projectId, subscriptionId, 2);
+    streamingService.startStream();
+    PrintStream out = discardStdout();
+
+    long warmupProcessedFrom = processed.get();
+    long warmupSent = publish(pubSubService, payload, warmupSeconds, messagesPerSecond);
+    awaitPublished(pubSubService, warmupSent);
+    awaitCount(processed, warmupProcessedFrom + warmupSent);
+
+    LatencyHistogram.HistogramSnapshot publishBefore = publishLatency.snapshot();
+    LatencyHistogram.HistogramSnapshot deliveryBefore = deliveryLatency.snapshot();
+    LatencyHistogram.HistogramSnapshot queueWaitBefore = queueWaitLatency.snapshot();
+    long processedFrom = processed.get();
+    long failedFrom = pubSubService.getFailedCount();
+    long publishedFrom = pubSubService.getPublishedCount();
+    long startNanos = System.nanoTime();
+    long sent = publish(pubSubService, payload, durationSeconds, messagesPerSecond);
+    awaitPublished(pubSubService, warmupSent + sent);
+    long publishedNanos = System.nanoTime();
+    awaitCount(processed, processedFrom + sent);
+    long deliveredNanos = System.nanoTime();
+    LatencyHistogram.HistogramSnapshot publish = publishLatency.snapshot().intervalSince(publishBefore);
+    LatencyHistogram.HistogramSnapshot delivery = deliveryLatency.snapshot().intervalSince(deliveryBefore);
+    LatencyHistogram.HistogramSnapshot queueWait = queueWaitLatency.snapshot().intervalSince(queueWaitBefore);
+    long published = pubSubService.getPublishedCount() - publishedFrom;
+    long failed = pubSubService.getFailedCount() - failedFrom;
+    long delivered = processed.get() - processedFrom;
+    pubSubService.shutdown();
+    streamingService.stopStream();
+    System.setOut(out);
+
+    System.out.println("Profile: publish, publishers: " + publishersCount + ", warm up: " + warmupSeconds + "s, duration: "
+            + durationSeconds + "s, target rate: " + (messagesPerSecond > 0 ? messagesPerSecond + " msg/s" : "unbounded"));
+    System.out.println("Messages sent: " + sent + ", published: " + published + ", failed: " + failed + ", delivered: " + delivered);
+    System.out.printf("Publish throughput: %.1f msg/s, delivery throughput: %.1f msg/s%n",
+            published / ((publishedNanos - startNanos) / 1e9), delivered / ((deliveredNanos - startNanos) / 1e9));
+    System.out.printf("Publish latency (ms): p50=%.3f p90=%.3f p99=%.3f p99.9=%.3f max=%.3f%n",
+            publish.getPercentile(50) / 1e6, publish.getPercentile(90) / 1e6, publish.getPercentile(99) / 1e6,
+            publish.getPercentile(99.9) / 1e6, publish.getMax() / 1e6);
+    //Publish time is set by pub/sub in milliseconds, so the delivery latency has millisecond resolution.
+    System.out.printf("Publish to receipt latency (ms): p50=%.0f p90=%.0f p99=%.0f p99.9=%.0f max=%.0f%n",
+            delivery.getPercentile(50) / 1e6, delivery.getPercentile(90) / 1e6, delivery.getPercentile(99) / 1e6,
+            delivery.getPercentile(99.9) / 1e6, delivery.getMax() / 1e6);
+    System.out.printf("Queue wait (us): p50=%.1f p90=%.1f p99=%.1f p99.9=%.1f max=%.1f%n",
+            queueWait.getPercentile(50) / 1e3, queueWait.getPercentile(90) / 1e3, queueWait.getPercentile(99) / 1e3,
+            queueWait.getPercentile(99.9) / 1e3, queueWait.getMax() / 1e3);
+  }
+
+  /**
+   * Method to publish messages at the rate for the duration, returns the number of messages sent.
+   */
+  private static long publish(PubSubService pubSubService, String payload, long durationSeconds, long messagesPerSecond) {
+    long startNanos = System.nanoTime();
+    long endNanos = startNanos + TimeUnit.SECONDS.toNanos(durationSeconds);
+    long intervalNanos = messagesPerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / messagesPerSecond : 0L;
+    long nextSendNanos = startNanos;
+    long sent = 0;
+    long now;
+    while((now = System.nanoTime()) < endNanos) {
+      if(intervalNanos > 0) {
+        if(now < nextSendNanos) {
+          LockSupport.parkNanos(nextSendNanos - now);
+          continue;
+        }
+        nextSendNanos += intervalNanos;
+      }
+      pubSubService.publishMessage(payload);
+      sent++;
+    }
+    return sent;
+  }
+
+  /**
+   * Method to wait until all the sent messages are published or failed, at most 60 seconds.
+   */
+  private static void awaitPublished(PubSubService pubSubService, long sent) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+    while(pubSubService.getPublishedCount() + pubSubService.getFailedCount() < sent && System.nanoTime() < deadline) {
+      Thread.sleep(1L);
+    }
+  }
+
+  /**
+   * Method to wait until the counter reaches the expected value, at most 60 seconds.
+   */
+  private static void awaitCount(Counter counter, long expected) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+    while(counter.get() < expected && System.nanoTime() < deadline) {
+      Thread.sleep(1L);
+    }
+  }
+
+  /**
+   * Method to wait until all the sent messages are acked or nacked, at most 60 seconds.
+   */
+  private static void drain(Recorder recorder, long sent) throws InterruptedException {
+    long drainDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+    while(recorder.completedCount() < sent && System.nanoTime() < drainDeadline) {
+      Thread.sleep(1L);
+    }
+  }
+
+  /**
+   * Method to discard the sampled message logs so the terminal is not part of the measurement, returns the original stdout.
+   */
+  private static PrintStream discardStdout() {
+    PrintStream out = System.out;
+    System.setOut(new PrintStream(new OutputStream() {
+      @Override
+      public void write(int b) {
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) {
+      }
+    }));
+    return out;
+  }
+
+  /**
+   * Method to sum the allocated bytes of all live threads, -1 if the JVM does not support it.
+   * Threads which died during the run are not counted, the worker pool core threads stay alive.
+   */
+  private static long totalAllocatedBytes() {
+    java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if(!(bean instanceof com.sun.management.ThreadMXBean)) {
+      return -1L;
+    }
+    com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+    if(!threadBean.isThreadAllocatedMemorySupported() || !threadBean.isThreadAllocatedMemoryEnabled()) {
+      return -1L;
+    }
+    long total = 0;
+    for(long allocated : threadBean.getThreadAllocatedBytes(threadBean.getAllThreadIds())) {
+      if(allocated > 0) {
+        total += allocated;
+      }
+    }
+    return total;
+  }
+
+}
@@ -0,0 +1,45 @@
+package com.manju.gcp.pubsub;
+
+import org.apache.commons.lang3.StringUtils;
+import com.google.api.gax.core.CredentialsProvider;
+import com.google.api.gax.core.NoCredentialsProvider;
+import com.google.api.gax.grpc.GrpcTransportChannel;
+import com.google.api.gax.rpc.FixedTransportChannelProvider;
+import com.google.api.gax.rpc.TransportChannelProvider;
+import io.grpc.ManagedChannelBuilder;
+
+/**
+ * Connection settings for the pub/sub emulator, used by the services when the PUBSUB_EMULATOR_HOST environment variable
+ * is set to the host:port of the emulator, the same variable the gcloud emulator prints.
+ */
+public class PubSubEmulator {
+
+    public static final String EMULATOR_HOST_ENV = "PUBSUB_EMULATOR_HOST";
+
+    /**
+     * Method to check if the services should connect to the emulator.
+     */
+    public static boolean isEnabled() {
+        return !StringUtils.isEmpty(getHost());
+    }
+
+    public static String getHost() {
+        return System.getenv(EMULATOR_HOST_ENV);
+    }
+
+    /**
+     * Method to create a provider of a new plain text channel to the emulator.
+     * Every publisher or subscriber gets its own channel as the client closes the channel when it is shut down.
+     */
+    public static TransportChannelProvider newChannelProvider() {
+        return FixedTransportChannelProvider.create(GrpcTransportChannel.create(
+                ManagedChannelBuilder.forTarget(getHost()).usePlaintext().build()));
+    }
+
+    /**
+     * Method to get the credentials provider for the emulator, which does not authenticate.
+     */
+    public static CredentialsProvider credentialsProvider() {
+        return NoCredentialsProvider.create();
+    }
+}
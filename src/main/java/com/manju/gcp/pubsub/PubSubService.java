@@ -1,28 +1,83 @@
 package com.manju.gcp.pubsub;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
 import org.apache.commons.lang3.StringUtils;
 import org.threeten.bp.Duration;
 import com.google.api.core.ApiFuture;
 import com.google.api.core.ApiFutureCallback;
 import com.google.api.core.ApiFutures;
 import com.google.api.gax.batching.BatchingSettings;
+import com.google.api.gax.core.FixedExecutorProvider;
 import com.google.api.gax.retrying.RetrySettings;
 import com.google.cloud.pubsub.v1.Publisher;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.protobuf.ByteString;
 import com.google.pubsub.v1.ProjectTopicName;
 import com.google.pubsub.v1.PubsubMessage;
+import com.manju.gcp.metrics.Counter;
+import com.manju.gcp.metrics.LatencyHistogram;
+import com.manju.gcp.metrics.MetricsRegistry;
+import com.manju.gcp.metrics.SampledLogger;
 
 public class PubSubService {
 
-  private Publisher publisher;
+  private static final SampledLogger LOG = new SampledLogger(PubSubService.class);
+  private static final LatencyHistogram PUBLISH_LATENCY = MetricsRegistry.getDefault().histogram("pubsub.publish.latency");
+  private static final Counter PUBLISH_SUCCESS = MetricsRegistry.getDefault().counter("pubsub.publish.success");
+  private static final Counter PUBLISH_FAILURE = MetricsRegistry.getDefault().counter("pubsub.publish.failure");
+  private static final Counter PUBLISH_BYTES = MetricsRegistry.getDefault().counter("pubsub.publish.bytes");
+  //Same thread count a single publisher uses by default, shared by all the publishers.
+  private static final int PUBLISHER_THREADS_PER_CPU = 5;
+
+  private List<Publisher> publishers = new ArrayList<>();
+
+  private ScheduledExecutorService publisherExecutor;
+
+  private AtomicInteger nextPublisher = new AtomicInteger();
+
+  //Per publisher counters, aggregated across publishers by the getters below.
+  private AtomicLongArray publishedCounts;
+  private AtomicLongArray failedCounts;
 
   /**
    * Constructor to initialise the publisher connection.
    */
   public PubSubService(String gcpProjectId, String topicName) {
+      this(gcpProjectId, topicName, 1);
+  }
+
+  /**
+   * Constructor to initialise sharded publisher connections, without message ordering.
+   *
+   * @param publishersCount -- Number of underlying publishers.
+   */
+  public PubSubService(String gcpProjectId, String topicName, int publishersCount) {
+      this(gcpProjectId, topicName, publishersCount, false);
+  }
+
+  /**
+   * Constructor to initialise sharded publisher connections.
+   * Each publisher has its own batcher and channels, messages are spread across them by ordering key hash
+   * or round-robin when there is no ordering key, so publish throughput scales with the number of publishers.
+   * All the publishers share one executor, so the thread count does not grow with the publishers count.
+   * Publishers connect to the emulator instead of google cloud when PUBSUB_EMULATOR_HOST is set.
+   * With message ordering the pub/sub client retries a failed publish without limit, the max attempts and total timeout
+   * of the retry settings are ignored, so a message of an ordering key only fails on a non retryable error.
+   *
+   * @param publishersCount -- Number of underlying publishers.
+   * @param enableMessageOrdering -- Enables publishing with ordering keys, messages with an ordering key are rejected without it.
+   */
+  public PubSubService(String gcpProjectId, String topicName, int publishersCount, boolean enableMessageOrdering) {
+      if(publishersCount < 1) {
+          throw new IllegalArgumentException("Publishers count should be at least 1.");
+      }
       try {
           ProjectTopicName topic = ProjectTopicName.of(gcpProjectId, topicName);
           RetrySettings retrySettings =
@@ -40,11 +95,30 @@ public class PubSubService {
                   .setRequestByteThreshold(10000L)
                   .setDelayThreshold(Duration.ofMillis(5))
                   .build();
-          publisher = Publisher.newBuilder(topic).setBatchingSettings(batchingSettings).
-                  setRetrySettings(retrySettings)
-                  .build();
-          System.out.println("Initialized gcp pubsub publisher.");
+          AtomicInteger threadIndex = new AtomicInteger();
+          publisherExecutor = Executors.newScheduledThreadPool(PUBLISHER_THREADS_PER_CPU * Runtime.getRuntime().availableProcessors(), runnable -> {
+              //Daemon threads like the default executor of the publisher, so they do not keep the jvm alive.
+              Thread thread = new Thread(runnable, "pubsub-publisher-thread-" + threadIndex.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+          });
+          FixedExecutorProvider executorProvider = FixedExecutorProvider.create(publisherExecutor);
+          for(int i=0; i < publishersCount; i++) {
+              Publisher.Builder builder = Publisher.newBuilder(topic).setBatchingSettings(batchingSettings).
+                      setRetrySettings(retrySettings)
+                      .setExecutorProvider(executorProvider)
+                      .setEnableMessageOrdering(enableMessageOrdering);
+              if(PubSubEmulator.isEnabled()) {
+                  builder.setChannelProvider(PubSubEmulator.newChannelProvider()).setCredentialsProvider(PubSubEmulator.credentialsProvider());
+              }
+              publishers.add(builder.build());
+          }
+          publishedCounts = new AtomicLongArray(publishersCount);
+          failedCounts = new AtomicLongArray(publishersCount);
+          System.out.println("Initialized gcp pubsub publisher, publishers count-" + publishersCount);
       } catch (IOException io) {
+          publishers.forEach(Publisher::shutdown);
+          publisherExecutor.shutdown();
           System.out.println("Error occurred while creating the gcp pubsub publisher -> " + io.getLocalizedMessage());
           throw new RuntimeException(io);
       }
@@ -54,43 +128,136 @@ public class PubSubService {
    * Method to publish message into google cloud pub/sub in an asynchronous way.
    *
    * @param message -- Message to be published to pub/sub in an asynchronous way.
+   * @return -- Returns the future of the published message id, null if the message is empty.
+   */
+  public ApiFuture<String> publishMessage(String message) {
+      return publishMessage(message, null);
+  }
+
+  /**
+   * Method to publish message with an ordering key into google cloud pub/sub in an asynchronous way.
+   * Ordering keys need the service to be created with message ordering enabled.
+   * Messages with the same ordering key always go through the same publisher so their order is preserved.
+   * If a message with an ordering key fails, the publisher rejects later messages of that key until the caller
+   * has handled the failure and calls resumePublish for the key.
+   *
+   * @param message -- Message to be published to pub/sub in an asynchronous way.
+   * @param orderingKey -- Ordering key of the message, can be empty or null.
+   * @return -- Returns the future of the published message id, null if the message is empty.
    */
-  public void publishMessage(String message) {
+  public ApiFuture<String> publishMessage(String message, String orderingKey) {
       if(!StringUtils.isEmpty(message)) {
           try {
-              System.out.println("Posting message into PubSub->" + message);
+              if(LOG.isSampled()) {
+                  LOG.info("publish", "message=\"" + message + "\"");
+              }
+              long startNanos = System.nanoTime();
               ByteString data = ByteString.copyFromUtf8(message);
-              PubsubMessage pubsubMessage = PubsubMessage.newBuilder().setData(data).build();
-              ApiFuture<String> messageIdFuture = publisher.publish(pubsubMessage);
+              PubsubMessage.Builder messageBuilder = PubsubMessage.newBuilder().setData(data);
+              if(!StringUtils.isEmpty(orderingKey)) {
+                  messageBuilder.setOrderingKey(orderingKey);
+              }
+              int index = selectPublisher(orderingKey);
+              Publisher publisher = publishers.get(index);
+              ApiFuture<String> messageIdFuture = publisher.publish(messageBuilder.build());
               ApiFutures.addCallback(
                       messageIdFuture,
                       new ApiFutureCallback<String>() {
                           public void onSuccess(String messageId) {
-                              System.out.println("Saved record. Value -> " +  message);
+                              PUBLISH_LATENCY.recordSince(startNanos);
+                              PUBLISH_SUCCESS.increment();
+                              PUBLISH_BYTES.add(data.size());
+                              publishedCounts.incrementAndGet(index);
                           }
                           public void onFailure(Throwable t) {
-                              System.err.println("Error while saving record to pubsub and exception is ->" + t.getLocalizedMessage());
+                              PUBLISH_LATENCY.recordSince(startNanos);
+                              PUBLISH_FAILURE.increment();
+                              failedCounts.incrementAndGet(index);
+                              LOG.error("publish_failed", "publisher=" + index, t);
                           }
                       }, MoreExecutors.directExecutor()
               );
+              return messageIdFuture;
           } catch(Exception ex) {
-              System.out.println("Error occurred while publishing message into PubSub-> " + ex.getLocalizedMessage());
-              ex.printStackTrace();
+              PUBLISH_FAILURE.increment();
+              LOG.error("publish_failed", null, ex);
               throw new RuntimeException(ex);
           }
       }
+      return null;
   }
 
   /**
-   * Method to shutdown pub/sub publisher.
+   * Method to resume publishing of the ordering key after a failed message of that key is handled.
+   */
+  public void resumePublish(String orderingKey) {
+      publishers.get(selectPublisher(orderingKey)).resumePublish(orderingKey);
+  }
+
+  /**
+   * Method to pick the publisher index, by ordering key hash if present otherwise round-robin.
+   */
+  private int selectPublisher(String orderingKey) {
+      int size = publishers.size();
+      if(size == 1) {
+          return 0;
+      }
+      if(!StringUtils.isEmpty(orderingKey)) {
+          return Math.floorMod(orderingKey.hashCode(), size);
+      }
+      return Math.floorMod(nextPublisher.getAndIncrement(), size);
+  }
+
+  /**
+   * Method to get the number of successfully published messages across all publishers.
+   */
+  public long getPublishedCount() {
+      return sum(publishedCounts);
+  }
+
+  /**
+   * Method to get the number of messages failed to publish across all publishers.
+   */
+  public long getFailedCount() {
+      return sum(failedCounts);
+  }
+
+  /**
+   * Method to get the number of underlying publishers.
+   */
+  public int getPublishersCount() {
+      return publishers.size();
+  }
+
+  private long sum(AtomicLongArray counts) {
+      long total = 0;
+      for(int i=0; i < counts.length(); i++) {
+          total += counts.get(i);
+      }
+      return total;
+  }
+
+  /**
+   * Method to shutdown pub/sub publishers.
+   * All publishers are shutdown first so they flush in parallel, then awaited together.
    */
   public void shutdown() {
-      try {
-          System.out.println("Shutting down pub sub publisher.");
-          publisher.shutdown();
-          publisher.awaitTermination(1, TimeUnit.MINUTES);
-      } catch(Exception ex) {
-          System.err.println("Error occurred while shutting down the publisher -> " + ex.getLocalizedMessage());
+      System.out.println("Shutting down pub sub publisher.");
+      publishers.forEach(publisher -> {
+          try {
+              publisher.shutdown();
+          } catch(Exception ex) {
+              System.err.println("Error occurred while shutting down the publisher -> " + ex.getLocalizedMessage());
+          }
+      });
+      long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+      for(Publisher publisher : publishers) {
+          try {
+              publisher.awaitTermination(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+          } catch(Exception ex) {
+              System.err.println("Error occurred while shutting down the publisher -> " + ex.getLocalizedMessage());
+          }
       }
+      publisherExecutor.shutdown();
   }
 }
@@ -0,0 +1,251 @@
+package com.manju.gcp.pubsub;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Delayed retry stage for the messages which failed in processing, used instead of nacking them right away.
+ * Failed messages are held in a hashed timer wheel and resubmitted after an exponential backoff with jitter,
+ * while they are held the subscriber keeps extending their ack deadlines as they are neither acked nor nacked,
+ * so configurations whose worst case total backoff exceeds the subscriber max ack extension period are rejected.
+ * Due messages are held while the circuit breaker is open and resubmitted once it closes, a message whose hold would run
+ * past the max ack extension period since it was received is nacked instead so it is redelivered right away.
+ * After max attempts the message is routed to the dead letter handler, or nacked if there is no handler.
+ */
+public class RetryScheduler {
+
+    private static final long TICK_MILLIS = 100L;
+    private static final int WHEEL_SIZE = 512;
+
+    private static final double FAILURE_RATE_THRESHOLD_DEFAULT = 0.5;
+    private static final int MINIMUM_CALLS_DEFAULT = 20;
+    private static final long WINDOW_SECONDS_DEFAULT = 10L;
+    private static final long OPEN_SECONDS_DEFAULT = 30L;
+
+    private static class Entry {
+
+        private final MessageProcessing messageProcessing;
+        private long remainingRounds;
+
+        Entry(MessageProcessing messageProcessing, long remainingRounds) {
+            this.messageProcessing = messageProcessing;
+            this.remainingRounds = remainingRounds;
+        }
+    }
+
+    private final int maxAttempts;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final DeadLetterHandler deadLetterHandler;
+    private final CircuitBreaker circuitBreaker;
+    private final long maxAckExtensionNanos = TimeUnit.MINUTES.toNanos(StreamingService.MAX_ACK_EXTENSION_MINUTES);
+
+    private final List<List<Entry>> wheel = new ArrayList<>(WHEEL_SIZE);
+    private int cursor;
+    private int pendingCount;
+
+    private Executor executor;
+    private ScheduledExecutorService ticker;
+
+    private final AtomicLong retriedCount = new AtomicLong();
+    private final AtomicLong deadLetteredCount = new AtomicLong();
+
+    public RetryScheduler(int maxAttempts, long initialBackoff, long maxBackoff, TimeUnit timeUnit, DeadLetterHandler deadLetterHandler) {
+        this(maxAttempts, initialBackoff, maxBackoff, timeUnit, deadLetterHandler,
+                new CircuitBreaker(FAILURE_RATE_THRESHOLD_DEFAULT, MINIMUM_CALLS_DEFAULT, WINDOW_SECONDS_DEFAULT, OPEN_SECONDS_DEFAULT, TimeUnit.SECONDS));
+    }
+
+    /**
+     * @param maxAttempts -- Maximum number of processing attempts, including the first one.
+     * @param initialBackoff -- Backoff before the first retry, doubled on every next retry.
+     * @param maxBackoff -- Maximum backoff between the retries.
+     * @param deadLetterHandler -- Handler for messages failed after max attempts, can be null.
+     * @param circuitBreaker -- Circuit breaker which pauses receiving messages when failure rate spikes.
+     */
+    public RetryScheduler(int maxAttempts, long initialBackoff, long maxBackoff, TimeUnit timeUnit, DeadLetterHandler deadLetterHandler,
+                          CircuitBreaker circuitBreaker) {
+        if(maxAttempts < 1) {
+            throw new IllegalArgumentException("Max attempts should be at least 1.");
+        }
+        if(initialBackoff <= 0 || maxBackoff < initialBackoff) {
+            throw new IllegalArgumentException("Initial backoff should be greater than zero and max backoff cannot be less than initial backoff.");
+        }
+        if(circuitBreaker == null) {
+            throw new IllegalArgumentException("Circuit breaker cannot be null.");
+        }
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMillis = timeUnit.toMillis(initialBackoff);
+        this.maxBackoffMillis = timeUnit.toMillis(maxBackoff);
+        long maxAckExtensionMillis = TimeUnit.MINUTES.toMillis(StreamingService.MAX_ACK_EXTENSION_MINUTES);
+        if(worstCaseTotalBackoffMillis() > maxAckExtensionMillis) {
+            throw new IllegalArgumentException("Worst case total backoff of " + worstCaseTotalBackoffMillis()
+                    + "ms exceeds the max ack extension period of " + maxAckExtensionMillis + "ms.");
+        }
+        this.deadLetterHandler = deadLetterHandler;
+        this.circuitBreaker = circuitBreaker;
+        for(int i=0; i < WHEEL_SIZE; i++) {
+            wheel.add(new ArrayList<>());
+        }
+    }
+
+    /**
+     * Method to start the timer wheel, due messages are resubmitted through the given executor.
+     */
+    public synchronized void start(Executor executor) {
+        if(ticker != null) {
+            throw new IllegalStateException("Retry scheduler is already started.");
+        }
+        this.executor = executor;
+        ticker = Executors.newSingleThreadScheduledExecutor(new WorkerPool.ThreadFactoryImpl("retry-scheduler-thread"));
+        ticker.scheduleAtFixedRate(this::tick, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Method to handle a failed processing attempt, schedules a retry or routes the message to dead letter handler.
+     */
+    public void retry(MessageProcessing messageProcessing, Throwable cause) {
+        circuitBreaker.recordFailure();
+        int attempt = messageProcessing.incrementAttempt();
+        if(attempt >= maxAttempts) {
+            deadLetter(messageProcessing, cause);
+            return;
+        }
+        long ticks = Math.max(1L, (backoffMillis(attempt) + TICK_MILLIS - 1) / TICK_MILLIS);
+        synchronized (this) {
+            if(ticker == null || ticker.isShutdown()) {
+                messageProcessing.getConsumer().nack();
+                return;
+            }
+            int slot = (int) ((cursor + ticks - 1) % WHEEL_SIZE);
+            wheel.get(slot).add(new Entry(messageProcessing, (ticks - 1) / WHEEL_SIZE));
+            pendingCount++;
+        }
+        retriedCount.incrementAndGet();
+    }
+
+    public void recordSuccess() {
+        circuitBreaker.recordSuccess();
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public long getRetriedCount() {
+        return retriedCount.get();
+    }
+
+    public long getDeadLetteredCount() {
+        return deadLetteredCount.get();
+    }
+
+    public synchronized int getPendingCount() {
+        return pendingCount;
+    }
+
+    /**
+     * Method to stop the timer wheel, pending messages are nacked so they are redelivered right away.
+     */
+    public void shutdown() {
+        List<Entry> pending = new ArrayList<>();
+        synchronized (this) {
+            if(ticker != null) {
+                ticker.shutdownNow();
+            }
+            wheel.forEach(bucket -> {
+                pending.addAll(bucket);
+                bucket.clear();
+            });
+            pendingCount = 0;
+        }
+        pending.forEach(entry -> entry.messageProcessing.getConsumer().nack());
+    }
+
+    /**
+     * Exponential backoff with equal jitter, a random delay between half and full backoff of the attempt.
+     */
+    private long backoffMillis(int attempt) {
+        long backoff = initialBackoffMillis << Math.min(attempt - 1, 30);
+        if(backoff <= 0 || backoff > maxBackoffMillis) {
+            backoff = maxBackoffMillis;
+        }
+        long half = backoff / 2;
+        return half + ThreadLocalRandom.current().nextLong(backoff - half + 1);
+    }
+
+    /**
+     * Sum of the full backoff of every retry, rounded up to the tick, the upper bound of the jittered delays.
+     */
+    private long worstCaseTotalBackoffMillis() {
+        long total = 0;
+        for(int attempt = 1; attempt < maxAttempts; attempt++) {
+            long backoff = initialBackoffMillis << Math.min(attempt - 1, 30);
+            if(backoff <= 0 || backoff > maxBackoffMillis) {
+                backoff = maxBackoffMillis;
+            }
+            total += ((backoff + TICK_MILLIS - 1) / TICK_MILLIS) * TICK_MILLIS;
+        }
+        return total;
+    }
+
+    private void tick() {
+        List<Entry> due = new ArrayList<>();
+        List<Entry> expired = new ArrayList<>();
+        synchronized (this) {
+            List<Entry> bucket = wheel.get(cursor);
+            int next = (cursor + 1) % WHEEL_SIZE;
+            boolean open = circuitBreaker.isOpen();
+            //Held messages must be released before the subscriber stops extending their ack deadline.
+            long holdLimitNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TICK_MILLIS) - maxAckExtensionNanos;
+            for(int i = bucket.size() - 1; i >= 0; i--) {
+                Entry entry = bucket.get(i);
+                if(entry.remainingRounds > 0) {
+                    entry.remainingRounds--;
+                } else if(open && entry.messageProcessing.getCreatedNanos() - holdLimitNanos <= 0) {
+                    expired.add(entry);
+                    bucket.remove(i);
+                } else if(open) {
+                    //Downstream is failing, hold the message for the next tick instead of spending an attempt on it.
+                    wheel.get(next).add(entry);
+                    bucket.remove(i);
+                } else {
+                    due.add(entry);
+                    bucket.remove(i);
+                }
+            }
+            pendingCount -= due.size() + expired.size();
+            cursor = next;
+        }
+        expired.forEach(entry -> entry.messageProcessing.getConsumer().nack());
+        for(Entry entry : due) {
+            try {
+                entry.messageProcessing.markResubmitted();
+                executor.execute(entry.messageProcessing);
+            } catch(Exception ex) {
+                entry.messageProcessing.getConsumer().nack();
+                System.err.println("Error in resubmitting message for retry->" + ex.getLocalizedMessage());
+            }
+        }
+    }
+
+    private void deadLetter(MessageProcessing messageProcessing, Throwable cause) {
+        if(deadLetterHandler == null) {
+            messageProcessing.getConsumer().nack();
+            return;
+        }
+        try {
+            deadLetterHandler.handle(messageProcessing.getPubsubMessage(), cause);
+            messageProcessing.getConsumer().ack();
+            deadLetteredCount.incrementAndGet();
+        } catch(Exception ex) {
+            messageProcessing.getConsumer().nack();
+            System.err.println("Error in dead letter handler->" + ex.getLocalizedMessage());
+        }
+    }
+}
@@ -1,9 +1,13 @@
 package com.manju.gcp.pubsub;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import org.threeten.bp.Duration;
 import com.google.api.client.util.Throwables;
+import com.google.api.core.ApiService;
 import com.google.api.gax.batching.FlowControlSettings;
 import com.google.api.gax.batching.FlowController;
 import com.google.api.gax.core.ExecutorProvider;
@@ -14,56 +18,216 @@ import com.google.pubsub.v1.ProjectSubscriptionName;
 
 public class StreamingService {
   
-  private List<Subscriber> subscribers = new ArrayList<>();
+  private static final long MAX_OUTSTANDING_ELEMENTS_DEFAULT = 10_000L;
+  private static final long MIN_OUTSTANDING_ELEMENTS = 100L;
+  private static final long MAX_OUTSTANDING_ELEMENTS = 40_000L;
+  private static final long SCALING_INTERVAL_SECONDS = 10L;
+  private static final long TARGET_MESSAGE_AGE_MILLIS = 30_000L;
+  //Subscriber extends the ack deadlines of outstanding messages up to this period, retry backoff has to fit in it.
+  static final long MAX_ACK_EXTENSION_MINUTES = 10L;
+  //Ratios applied to both the worker queue fill and the worker utilization from handler and ack latency.
+  private static final double SATURATED_RATIO = 0.8;
+  private static final double HEADROOM_RATIO = 0.5;
+  private static final double IDLE_RATIO = 0.1;
   
-  private MessageReceiverImpl messageReceiverImpl = new MessageReceiverImpl();
+  private List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+  
+  private List<Subscriber> removedSubscribers = new CopyOnWriteArrayList<>();
+  
+  private MessageReceiverImpl messageReceiverImpl;
+  
+  private ProjectSubscriptionName subscriptionName;
+  
+  private ExecutorProvider executorProvider;
+  
+  private int minSubscribers;
+  
+  private int maxSubscribers;
+  
+  private long maxOutstandingElements = MAX_OUTSTANDING_ELEMENTS_DEFAULT;
+  
+  private ScheduledExecutorService scalingExecutor;
+  
+  private boolean started;
   
   public StreamingService(String projectId, String subscriptionId, int threadsCount) {
-    createSubscriber(projectId, subscriptionId, threadsCount);
+    this(projectId, subscriptionId, threadsCount, null);
+  }
+  
+  /**
+   * Constructor with an optional deduplicator to drop redelivered messages which are already processed.
+   */
+  public StreamingService(String projectId, String subscriptionId, int threadsCount, MessageDeduplicator messageDeduplicator) {
+    this(projectId, subscriptionId, threadsCount, threadsCount, messageDeduplicator);
+  }
+  
+  /**
+   * Constructor for dynamic mode, the subscribers count is scaled between min and max subscribers at runtime.
+   * Every scaling interval the message age at receipt, worker queue depth, queue wait and the worker utilization from handler
+   * and ack latency are checked. A subscriber is added and the flow control limit doubled when messages are lagging and workers
+   * have headroom, the limit is halved and a subscriber removed when the workers are saturated, and a subscriber is removed
+   * when the stream is idle. Flow control of a subscriber is fixed when it is built, so the oldest subscriber is the one removed
+   * and in intervals without a count change the oldest subscriber with an outdated limit is replaced by one with the current limit.
+   *
+   * @param minSubscribers -- Number of subscribers to start with and keep at least.
+   * @param maxSubscribers -- Maximum number of subscribers.
+   * @param messageDeduplicator -- Optional deduplicator, can be null.
+   */
+  public StreamingService(String projectId, String subscriptionId, int minSubscribers, int maxSubscribers,
+                          MessageDeduplicator messageDeduplicator) {
+    this(projectId, subscriptionId, minSubscribers, maxSubscribers, messageDeduplicator, null);
+  }
+  
+  /**
+   * Constructor for dynamic mode with an optional retry scheduler for delayed retries of the failed messages.
+   *
+   * @param retryScheduler -- Optional retry scheduler, can be null to nack failed messages right away.
+   */
+  public StreamingService(String projectId, String subscriptionId, int minSubscribers, int maxSubscribers,
+                          MessageDeduplicator messageDeduplicator, RetryScheduler retryScheduler) {
+    if(minSubscribers < 1 || maxSubscribers < minSubscribers) {
+      throw new IllegalArgumentException("Subscribers count should be at least 1 and max subscribers cannot be less than min subscribers.");
+    }
+    this.minSubscribers = minSubscribers;
+    this.maxSubscribers = maxSubscribers;
+    messageReceiverImpl = new MessageReceiverImpl(messageDeduplicator, retryScheduler);
+    createSubscriber(projectId, subscriptionId, minSubscribers);
   }
   
   /**
    * Method to create number of subscribers based on the subscribers count.
+   * Subscribers connect to the emulator instead of google cloud when PUBSUB_EMULATOR_HOST is set.
    */
   private void createSubscriber(String projectId, String subscriptionId, int subscribersCount) {
     System.out.println("Starting subscriber-" + subscriptionId);
-    ProjectSubscriptionName subscriptionName = ProjectSubscriptionName.of(projectId, subscriptionId);
-    ExecutorProvider executorProvider =
+    subscriptionName = ProjectSubscriptionName.of(projectId, subscriptionId);
+    executorProvider =
             InstantiatingExecutorProvider.newBuilder().setExecutorThreadCount(3).build();
+    for(int i=0; i < subscribersCount; i++) {
+        subscribers.add(newSubscriber());
+    }
+  }
+  
+  private Subscriber newSubscriber() {
     FlowControlSettings flowControlSettings =
             FlowControlSettings.newBuilder()
-                    .setMaxOutstandingElementCount(10_000L)
+                    .setMaxOutstandingElementCount(maxOutstandingElements)
                     .setLimitExceededBehavior(FlowController.LimitExceededBehavior.Block)
                     .build();
-    for(int i=0; i < subscribersCount; i++) {
-        Subscriber s =  Subscriber.newBuilder(subscriptionName, messageReceiverImpl).setExecutorProvider(executorProvider)
-                .setFlowControlSettings(flowControlSettings).setMaxAckExtensionPeriod(Duration.ofMinutes(10)).build();
-        s.addListener(new Subscriber.Listener() {
-            @Override
-            public void failed(Subscriber.State from, Throwable failure) {
-                System.err.println("Exception thrown in Subscriber: " + failure.toString());
-                System.err.println("Subscriber state: " + from.toString());
-                Throwables.propagate(failure);
-            }
-        }, MoreExecutors.directExecutor());
-        subscribers.add(s);
+    Subscriber.Builder builder = Subscriber.newBuilder(subscriptionName, messageReceiverImpl).setExecutorProvider(executorProvider)
+            .setFlowControlSettings(flowControlSettings).setMaxAckExtensionPeriod(Duration.ofMinutes(MAX_ACK_EXTENSION_MINUTES));
+    if(PubSubEmulator.isEnabled()) {
+      builder.setChannelProvider(PubSubEmulator.newChannelProvider()).setCredentialsProvider(PubSubEmulator.credentialsProvider());
     }
+    Subscriber s = builder.build();
+    s.addListener(new Subscriber.Listener() {
+        @Override
+        public void failed(Subscriber.State from, Throwable failure) {
+            System.err.println("Exception thrown in Subscriber: " + failure.toString());
+            System.err.println("Subscriber state: " + from.toString());
+            Throwables.propagate(failure);
+        }
+    }, MoreExecutors.directExecutor());
+    return s;
+  }
+  
+  /**
+   * Method to scale the subscribers based on the signals of the last interval.
+   * Workers are saturated when the queue fills up, queue wait grows or handler and ack latency keep the worker threads busy,
+   * the subscription is lagging when the average message age crosses the target while workers have headroom.
+   */
+  private synchronized void scaleSubscribers() {
+    if(!started) {
+      return;
+    }
+    try {
+      ProcessingLagStats.Snapshot snapshot = messageReceiverImpl.getProcessingLagStats().snapshotAndReset();
+      double queueRatio = (double) messageReceiverImpl.getQueueSize() / messageReceiverImpl.getQueueCapacity();
+      double utilization = snapshot.getWorkerUtilization(messageReceiverImpl.getWorkerThreadsCount());
+      long averageAgeMillis = snapshot.getAverageMessageAgeMillis();
+      int count = subscribers.size();
+      String details = "utilization=" + utilization + ", maxOutstandingElements=" + maxOutstandingElements + ", " + snapshot;
+      if(queueRatio >= SATURATED_RATIO || utilization >= SATURATED_RATIO || snapshot.getAverageQueueWaitMillis() > TARGET_MESSAGE_AGE_MILLIS / 2) {
+        //Workers are the bottleneck, pulling more only grows the queue and expires ack deadlines.
+        maxOutstandingElements = Math.max(MIN_OUTSTANDING_ELEMENTS, maxOutstandingElements / 2);
+        if(count > minSubscribers) {
+          removeSubscriber("Removed subscriber", details);
+          return;
+        }
+      } else if(averageAgeMillis > TARGET_MESSAGE_AGE_MILLIS && queueRatio < HEADROOM_RATIO && utilization < HEADROOM_RATIO) {
+        maxOutstandingElements = Math.min(MAX_OUTSTANDING_ELEMENTS, maxOutstandingElements * 2);
+        if(count < maxSubscribers) {
+          addSubscriber("Added subscriber", details);
+          return;
+        }
+      } else if(averageAgeMillis < TARGET_MESSAGE_AGE_MILLIS / 4 && queueRatio < IDLE_RATIO && utilization < IDLE_RATIO && count > minSubscribers) {
+        removeSubscriber("Removed idle subscriber", details);
+        return;
+      }
+      if(subscribers.get(0).getFlowControlSettings().getMaxOutstandingElementCount() != maxOutstandingElements) {
+        //Count is unchanged, move one subscriber per interval onto the current limit, oldest first.
+        addSubscriber("Replaced subscriber to apply the flow control limit", details);
+        removeSubscriber("Removed replaced subscriber", details);
+      }
+    } catch(Exception ex) {
+      System.err.println("Error in scaling subscribers->" + ex.getLocalizedMessage());
+    }
+  }
+  
+  private void addSubscriber(String event, String details) {
+    Subscriber s = newSubscriber();
+    subscribers.add(s);
+    s.startAsync();
+    System.out.println(event + ", subscribers count-" + subscribers.size() + ", " + details);
+  }
+  
+  /**
+   * Method to take the oldest subscriber out of the list and stop it without waiting, it drains its outstanding
+   * messages in the background and stopStream awaits its termination.
+   */
+  private void removeSubscriber(String event, String details) {
+    Subscriber s = subscribers.remove(0);
+    //Subscribers removed in earlier intervals which already terminated need no awaiting.
+    removedSubscribers.removeIf(removed -> removed.state() == ApiService.State.TERMINATED || removed.state() == ApiService.State.FAILED);
+    removedSubscribers.add(s);
+    s.stopAsync();
+    System.out.println(event + ", subscribers count-" + subscribers.size() + ", " + details);
+  }
+  
+  /**
+   * Method to get the current number of subscribers.
+   */
+  public int getSubscribersCount() {
+    return subscribers.size();
   }
   
   /**
    * Method to close the subscribers.
    */
   public void stopStream() {
+    synchronized (this) {
+      started = false;
+      if(scalingExecutor != null) {
+        scalingExecutor.shutdownNow();
+      }
+    }
     messageReceiverImpl.shutdown();
     subscribers.forEach(Subscriber::stopAsync);
     subscribers.forEach(Subscriber::awaitTerminated);
+    removedSubscribers.forEach(Subscriber::awaitTerminated);
+    removedSubscribers.clear();
   }
   
   /**
    * Method to start the subscribers to receiver messages from pub/sub.
    */
-  public void startStream() {
+  public synchronized void startStream() {
     subscribers.forEach(Subscriber::startAsync);
+    started = true;
+    if(maxSubscribers > minSubscribers) {
+      scalingExecutor = Executors.newSingleThreadScheduledExecutor(new WorkerPool.ThreadFactoryImpl("subscriber-scaling-thread"));
+      scalingExecutor.scheduleWithFixedDelay(this::scaleSubscribers, SCALING_INTERVAL_SECONDS, SCALING_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
   }
 
 }
@@ -60,6 +60,18 @@ public class WorkerPool {
         futureList.add(threadPool.submit(runnable));
     }
     
+    public int getQueueSize() {
+        return workQueue.size();
+    }
+
+    public int getQueueCapacity() {
+        return workQueue.size() + workQueue.remainingCapacity();
+    }
+
+    public int getThreadsCount() {
+        return ((ThreadPoolExecutor) threadPool).getMaximumPoolSize();
+    }
+
     public void close() {
         threadPool.shutdown();
         try {